@@ -0,0 +1,87 @@
+package cpen221.mp3;
+
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.wikimediator.WikiPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Throughput of FSFTBuffer get, put and touch.
+ * Every operation picks an id uniformly at random from a key space capacity / hitRatio
+ * ids large, so that, once the buffer is full, about hitRatio of gets find their object.
+ * A get that misses loads the object and puts it, as a read-through cache would.
+ * The number of threads is set when running, e.g. ./gradlew jmh -PjmhThreads=8.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+
+    @Param({"1000", "100000"})
+    private int capacity;
+
+    @Param({"0.5", "0.9", "1.0"})
+    private double hitRatio;
+
+    @Param({"1", "16"})
+    private int segments;
+
+    private FSFTBuffer<WikiPage> buffer;
+    private WikiPage[] pages;
+    private String[] ids;
+    private Function<String, WikiPage> loader;
+
+    @Setup
+    public void setUp() {
+        int keys = (int) Math.ceil(capacity / hitRatio);
+        pages = new WikiPage[keys];
+        ids = new String[keys];
+        HashMap<String, WikiPage> pagesById = new HashMap<>();
+        for (int key = 0; key < keys; key++) {
+            ids[key] = OfflineWiki.title(key);
+            pages[key] = new WikiPage(ids[key], "text of " + ids[key]);
+            pagesById.put(ids[key], pages[key]);
+        }
+        loader = pagesById::get;
+        buffer = new FSFTBuffer.Builder<WikiPage>()
+            .withCapacity(capacity)
+            .withTimeout(3600)
+            .withSegments(segments)
+            .build();
+        for (int key = 0; key < capacity; key++) {
+            buffer.put(pages[key]);
+        }
+    }
+
+    @Benchmark
+    public WikiPage get() {
+        return buffer.get(ids[ThreadLocalRandom.current().nextInt(ids.length)], loader);
+    }
+
+    @Benchmark
+    public boolean put() {
+        return buffer.put(pages[ThreadLocalRandom.current().nextInt(pages.length)]);
+    }
+
+    @Benchmark
+    public boolean touch() {
+        return buffer.touch(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+    }
+}
@@ -0,0 +1,106 @@
+package cpen221.mp3;
+
+import cpen221.mp3.fsftbuffer.FakeTicker;
+import cpen221.mp3.wikimediator.WikiMediator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per zeitgeist, trending and windowedPeakLoad request over a synthetic history.
+ * The mediator replays a request log of {@code history} search and getPage requests,
+ * spread evenly over the ten minutes before a clock that does not move, whose queries
+ * are skewed so that a few of the {@code queries} distinct titles are requested most.
+ * Each request measured is also logged, as in the mediator, and so adds to the history.
+ * So that every iteration measures the same workload, the mediator is rebuilt from the
+ * same log before each one, and each iteration times a fixed batch of CALLS requests:
+ * scores are the time per batch, over a history that grows from {@code history} to
+ * {@code history} + CALLS requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = MediatorBenchmark.CALLS)
+@Measurement(iterations = 20, batchSize = MediatorBenchmark.CALLS)
+@Fork(1)
+public class MediatorBenchmark {
+    static final int CALLS = 100;
+    private static final long NOW = 1_600_000_000_000L;
+    private static final long HISTORY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    @Param({"10000", "100000"})
+    private int history;
+
+    @Param({"1000"})
+    private int queries;
+
+    private WikiMediator mediator;
+    private Path historyLog;
+    private Path requestLog;
+
+    @Setup(Level.Trial)
+    public void writeHistory() throws IOException {
+        historyLog = Files.createTempFile("history", ".log");
+        requestLog = Files.createTempFile("requests", ".log");
+        Random random = new Random(221);
+        try (BufferedWriter log = Files.newBufferedWriter(historyLog)) {
+            for (int request = 0; request < history; request++) {
+                int query = (int) (queries * Math.pow(random.nextDouble(), 3));
+                long time = NOW - HISTORY_MILLIS + request * HISTORY_MILLIS / history;
+                log.write((random.nextBoolean() ? "SEARCH " : "GET_PAGE ")
+                    + OfflineWiki.title(query) + " " + time + "\n");
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void replayHistory() throws IOException {
+        // The mediator appends to its log, so replay a fresh copy of the history.
+        Files.copy(historyLog, requestLog, StandardCopyOption.REPLACE_EXISTING);
+        mediator = new WikiMediator.Builder()
+            .withWikiSource(new OfflineWiki(queries, 10))
+            .withRequestLog(requestLog.toString())
+            .withTicker(new FakeTicker(NOW))
+            .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(historyLog);
+        Files.deleteIfExists(requestLog);
+    }
+
+    @Benchmark
+    public List<String> zeitgeist() {
+        return mediator.zeitgeist(10);
+    }
+
+    @Benchmark
+    public List<String> trending() {
+        return mediator.trending(30, 10);
+    }
+
+    @Benchmark
+    public int windowedPeakLoad() {
+        return mediator.windowedPeakLoad(30);
+    }
+}
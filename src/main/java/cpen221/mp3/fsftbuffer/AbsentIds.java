@@ -0,0 +1,122 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class AbsentIds {
+    private final LinkedHashMap<String, Long> expiries = new LinkedHashMap<>();
+    private final long timeoutMillis;
+    private final int maximumSize;
+    private final MissFilter filter;
+
+    /* Representation Invariant */
+    // expiries maps each id to the time, in milliseconds, at which it is forgotten,
+    // and holds at most maximumSize ids.
+    // ids are in the order they were last added, which, since every id is kept
+    // for the same timeoutMillis, is also the order in which they are forgotten.
+    // timeoutMillis and maximumSize are greater than or equal to zero.
+    // if filter is non-null, every id in expiries has been added to it once and not removed.
+
+    /* Abstraction Function */
+    // an AbsentIds is the set of ids that a loader recently found no object for,
+    // each remembered for timeoutMillis after it was last added.
+    // When more than maximumSize ids are remembered, the oldest are forgotten first.
+
+    /* Thread Safety Argument */
+    // AbsentIds is not thread-safe on its own: each one belongs to a single
+    // BufferSegment and is only used while holding that segment's lock.
+
+    /**
+     * Creates an empty set of absent ids.
+     *
+     * @param timeoutMillis how long an id is remembered after it is added, {@code >= 0}
+     * @param maximumSize   the number of ids remembered at most, {@code >= 0}
+     * @param filter        the filter of the segment's resident ids, which is told of every
+     *                      id remembered and forgotten, or null if the segment has none
+     */
+    AbsentIds(long timeoutMillis, int maximumSize, MissFilter filter) {
+        this.timeoutMillis = Math.max(timeoutMillis, 0);
+        this.maximumSize = Math.max(maximumSize, 0);
+        this.filter = filter;
+    }
+
+    /**
+     * @param id          the identifier to look up
+     * @param currentTime the current time in milliseconds
+     * @return true if {@code id} was added less than timeoutMillis ago and has not been
+     * removed since
+     */
+    boolean contains(String id, long currentTime) {
+        Long expiresAt = expiries.get(id);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (currentTime >= expiresAt) {
+            expiries.remove(id);
+            forget(id);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remembers that there is no object for an id, forgetting the oldest id
+     * if that makes the set too large.
+     *
+     * @param id          the identifier a loader found nothing for
+     * @param currentTime the current time in milliseconds
+     */
+    void add(String id, long currentTime) {
+        if (maximumSize == 0) {
+            return;
+        }
+        // Re-adding moves the id to the end, keeping ids in the order they are forgotten.
+        if (expiries.remove(id) == null && filter != null) {
+            filter.add(id);
+        }
+        expiries.put(id, currentTime + timeoutMillis);
+        if (expiries.size() > maximumSize) {
+            Iterator<String> oldest = expiries.keySet().iterator();
+            forget(oldest.next());
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Forgets an id, once there is an object for it again.
+     *
+     * @param id the identifier of the object
+     */
+    void remove(String id) {
+        if (!expiries.isEmpty() && expiries.remove(id) != null) {
+            forget(id);
+        }
+    }
+
+    /**
+     * Forgets every id whose time has run out.
+     *
+     * @param currentTime the current time in milliseconds
+     */
+    void expire(long currentTime) {
+        Iterator<Map.Entry<String, Long>> oldest = expiries.entrySet().iterator();
+        while (oldest.hasNext()) {
+            Map.Entry<String, Long> entry = oldest.next();
+            if (currentTime < entry.getValue()) {
+                return;
+            }
+            forget(entry.getKey());
+            oldest.remove();
+        }
+    }
+
+    /**
+     * @param id an id just removed from expiries
+     */
+    private void forget(String id) {
+        if (filter != null) {
+            filter.remove(id);
+        }
+    }
+}
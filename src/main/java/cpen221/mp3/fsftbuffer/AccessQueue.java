@@ -0,0 +1,90 @@
+package cpen221.mp3.fsftbuffer;
+
+class AccessQueue<T extends Bufferable> {
+
+    private final BufferObject<T> sentinel;
+    private int size;
+    private long weight;
+
+    /* Representation Invariant */
+    // sentinel is the head of a circular doubly linked list threaded through
+    // the prevAccess and nextAccess links of its BufferObjects.
+    // size is the number of BufferObjects in the list, not counting sentinel.
+    // weight is the sum of their weights.
+
+    /* Abstraction Function */
+    // an AccessQueue is a sequence of BufferObjects ordered from least recently used,
+    // sentinel.nextAccess, to most recently used, sentinel.prevAccess.
+
+    /* Thread Safety Argument */
+    // AccessQueue is not thread-safe on its own; it belongs to an eviction policy
+    // that is only used while holding its segment's lock.
+
+    /**
+     * Creates an empty queue.
+     */
+    AccessQueue() {
+        this.sentinel = new BufferObject<>(0);
+        sentinel.prevAccess = sentinel;
+        sentinel.nextAccess = sentinel;
+    }
+
+    /**
+     * @return the least recently used bufferObject, or null if the queue is empty
+     */
+    BufferObject<T> peekFirst() {
+        return size == 0 ? null : sentinel.nextAccess;
+    }
+
+    /**
+     * @return the number of bufferObjects in the queue
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the total weight of the bufferObjects in the queue
+     */
+    long weight() {
+        return weight;
+    }
+
+    /**
+     * Adds a bufferObject as the most recently used one.
+     *
+     * @param bufferObject a bufferObject that is not in any queue
+     */
+    void linkLast(BufferObject<T> bufferObject) {
+        bufferObject.prevAccess = sentinel.prevAccess;
+        bufferObject.nextAccess = sentinel;
+        sentinel.prevAccess.nextAccess = bufferObject;
+        sentinel.prevAccess = bufferObject;
+        size++;
+        weight += bufferObject.weight();
+    }
+
+    /**
+     * Removes a bufferObject from the queue.
+     *
+     * @param bufferObject a bufferObject in this queue
+     */
+    void unlink(BufferObject<T> bufferObject) {
+        bufferObject.prevAccess.nextAccess = bufferObject.nextAccess;
+        bufferObject.nextAccess.prevAccess = bufferObject.prevAccess;
+        bufferObject.prevAccess = null;
+        bufferObject.nextAccess = null;
+        size--;
+        weight -= bufferObject.weight();
+    }
+
+    /**
+     * Makes a bufferObject the most recently used one of the queue.
+     *
+     * @param bufferObject a bufferObject in this queue
+     */
+    void moveToLast(BufferObject<T> bufferObject) {
+        unlink(bufferObject);
+        linkLast(bufferObject);
+    }
+}
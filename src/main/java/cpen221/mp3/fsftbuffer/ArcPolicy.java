@@ -0,0 +1,126 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class ArcPolicy<T extends Bufferable> implements SegmentPolicy<T> {
+
+    static final int RECENT = 1;
+    static final int FREQUENT = 2;
+
+    private final AccessQueue<T> recent = new AccessQueue<>();
+    private final AccessQueue<T> frequent = new AccessQueue<>();
+    private final LinkedHashMap<String, Integer> recentGhosts = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Integer> frequentGhosts = new LinkedHashMap<>();
+    private final long maximumWeight;
+    private long recentGhostWeight;
+    private long frequentGhostWeight;
+    private long recentTarget;
+    private BufferObject<T> lastVictim;
+
+    /* Representation Invariant */
+    // every bufferObject inserted and not yet removed is in exactly one of recent and
+    // frequent, and its queue field names that queue.
+    // recentGhosts and frequentGhosts map ids of evicted objects to their weights,
+    // oldest first; no id is in both, and none is the id of an object in recent or
+    // frequent. recentGhostWeight and frequentGhostWeight are the sums of their weights.
+    // recent.weight() + recentGhostWeight <= maximumWeight, and the weight of all four
+    // lists is at most 2 * maximumWeight, once a removal has been recorded.
+    // 0 <= recentTarget <= maximumWeight.
+    // lastVictim is the object last returned by victim(), or null.
+
+    /* Abstraction Function */
+    // an ArcPolicy is an adaptive replacement cache: objects used once are in recent and
+    // objects used again are in frequent, each ordered from least to most recently used.
+    // The ghost lists remember objects recently evicted from each. Adding an object that
+    // is remembered as a recent ghost means recent was too small, so recentTarget, the
+    // weight recent aims for, grows; a frequent ghost makes it shrink. Victims come from
+    // recent while it is over recentTarget, and from frequent otherwise.
+
+    /* Thread Safety Argument */
+    // not thread-safe; see SegmentPolicy.
+
+    /**
+     * Creates an adaptive replacement cache policy.
+     *
+     * @param maximumWeight the weight budget of the segment, {@code maximumWeight} >= 0
+     */
+    ArcPolicy(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    public void recordInsert(BufferObject<T> bufferObject) {
+        String id = bufferObject.id();
+        long weight = bufferObject.weight();
+        Integer ghost = recentGhosts.remove(id);
+        if (ghost != null) {
+            recentGhostWeight -= ghost;
+            long step = Math.max(frequentGhostWeight / Math.max(recentGhostWeight, 1), 1);
+            recentTarget = Math.min(recentTarget + step * weight, maximumWeight);
+        } else if ((ghost = frequentGhosts.remove(id)) != null) {
+            frequentGhostWeight -= ghost;
+            long step = Math.max(recentGhostWeight / Math.max(frequentGhostWeight, 1), 1);
+            recentTarget = Math.max(recentTarget - step * weight, 0);
+        }
+        bufferObject.queue = ghost == null ? RECENT : FREQUENT;
+        (ghost == null ? recent : frequent).linkLast(bufferObject);
+    }
+
+    public void recordAccess(BufferObject<T> bufferObject) {
+        if (bufferObject.queue == FREQUENT) {
+            frequent.moveToLast(bufferObject);
+            return;
+        }
+        recent.unlink(bufferObject);
+        bufferObject.queue = FREQUENT;
+        frequent.linkLast(bufferObject);
+    }
+
+    public void recordRemoval(BufferObject<T> bufferObject) {
+        boolean wasRecent = bufferObject.queue == RECENT;
+        (wasRecent ? recent : frequent).unlink(bufferObject);
+        // Only evicted objects are remembered; stale and replaced ones tell nothing
+        // about which list is too small.
+        if (bufferObject != lastVictim) {
+            return;
+        }
+        lastVictim = null;
+        if (wasRecent) {
+            recentGhosts.put(bufferObject.id(), bufferObject.weight());
+            recentGhostWeight += bufferObject.weight();
+        } else {
+            frequentGhosts.put(bufferObject.id(), bufferObject.weight());
+            frequentGhostWeight += bufferObject.weight();
+        }
+        while (recent.weight() + recentGhostWeight > maximumWeight && !recentGhosts.isEmpty()) {
+            recentGhostWeight -= removeOldest(recentGhosts);
+        }
+        while (recent.weight() + frequent.weight() + recentGhostWeight + frequentGhostWeight
+            > 2 * maximumWeight && !frequentGhosts.isEmpty()) {
+            frequentGhostWeight -= removeOldest(frequentGhosts);
+        }
+    }
+
+    public BufferObject<T> victim() {
+        BufferObject<T> oldestRecent = recent.peekFirst();
+        BufferObject<T> oldestFrequent = frequent.peekFirst();
+        if (oldestRecent != null && (oldestFrequent == null || recent.weight() > recentTarget)) {
+            lastVictim = oldestRecent;
+        } else {
+            lastVictim = oldestFrequent;
+        }
+        return lastVictim;
+    }
+
+    /**
+     * @param ghosts a non-empty ghost list
+     * @return the weight of the oldest ghost, which is removed
+     */
+    private static int removeOldest(LinkedHashMap<String, Integer> ghosts) {
+        Iterator<Map.Entry<String, Integer>> oldest = ghosts.entrySet().iterator();
+        int weight = oldest.next().getValue();
+        oldest.remove();
+        return weight;
+    }
+}
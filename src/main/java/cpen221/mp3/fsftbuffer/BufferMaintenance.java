@@ -0,0 +1,73 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+final class BufferMaintenance {
+
+    /* how often, in milliseconds, registered buffers drop their stale objects */
+    static final long PERIOD_MILLIS = 1000;
+
+    private static final ScheduledExecutorService SCHEDULER =
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FSFTBuffer-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /* Thread Safety Argument */
+    // SCHEDULER is a thread-safe executor with a single daemon thread, so maintenance
+    // tasks never run concurrently with each other and never keep the JVM alive.
+    // Each task only calls the cleanUp() of its buffer, which is itself thread-safe.
+    // Tasks hold their buffer through a WeakReference, so registering a buffer
+    // does not keep it reachable; once it is collected its task cancels itself.
+
+    private BufferMaintenance() {
+    }
+
+    /**
+     * Periodically removes stale objects from {@code buffer} for as long as
+     * the buffer is reachable.
+     *
+     * @param buffer a non-null buffer
+     */
+    static void register(FSFTBuffer<?> buffer) {
+        schedule(buffer, FSFTBuffer::cleanUp);
+    }
+
+    /**
+     * Periodically removes stale objects from {@code buffer} for as long as
+     * the buffer is reachable.
+     *
+     * @param buffer a non-null buffer
+     */
+    static void register(CompactFSFTBuffer<?> buffer) {
+        schedule(buffer, CompactFSFTBuffer::cleanUp);
+    }
+
+    /**
+     * @param buffer  a non-null buffer
+     * @param cleanUp removes the stale objects of a buffer
+     * @param <B>     the type of buffer
+     */
+    private static <B> void schedule(B buffer, Consumer<? super B> cleanUp) {
+        WeakReference<B> reference = new WeakReference<>(buffer);
+        AtomicReference<ScheduledFuture<?>> task = new AtomicReference<>();
+        task.set(SCHEDULER.scheduleWithFixedDelay(() -> {
+            B registered = reference.get();
+            if (registered == null) {
+                ScheduledFuture<?> self = task.get();
+                if (self != null) {
+                    self.cancel(false);
+                }
+                return;
+            }
+            cleanUp.accept(registered);
+        }, PERIOD_MILLIS, PERIOD_MILLIS, TimeUnit.MILLISECONDS));
+    }
+}
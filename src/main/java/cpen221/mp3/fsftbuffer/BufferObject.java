@@ -1,116 +1,228 @@
 package cpen221.mp3.fsftbuffer;
 
+import java.nio.ByteBuffer;
+
 public class BufferObject<T extends Bufferable> {
     private static final int MILLIS_PER_SEC = 1000;
 
     private long nextTimeout;
     private long lastAccess;
-    private final int timeout;
+    private int timeout;
 
     private T bufferObject;
+    private ByteBuffer offHeapObject;
     private String id;
+    private int weight;
+
+    // Intrusive links used by the owning segment's eviction policy and timer wheel.
+    BufferObject<T> prevAccess;
+    BufferObject<T> nextAccess;
+    BufferObject<T> prevTimer;
+    BufferObject<T> nextTimer;
+    int queue;
+
     /* Representation Invariant */
-    // nextTimeout is not null and must be a positive long value.
-    // lastAccess is not null and must be a positive long value.
-    // timeout is not null and must be a positive integer value.
+    // nextTimeout and lastAccess are zero until the first fill, and
+    // positive long values afterwards.
+    // timeout is an integer greater than or equal to zero.
     // bufferObject is a generic type that extends the Bufferable interface.
+    // at most one of bufferObject and offHeapObject is non-null.
     // id is a string that can be null.
+    // weight is an integer greater than or equal to zero.
+    // the access and timer links are either null (unlinked)
+    // or point to neighbours in the owning segment's lists.
 
     /* Abstraction Function */
-    // bufferObject is an object that wraps a Bufferable object.
+    // bufferObject is an object that wraps a Bufferable object, either directly or,
+    // in an off-heap segment, as offHeapObject: the object's bytes in direct memory.
     // It contains information on it's last access time, next timeout time until it goes stale,
-    // and it's string ID.
+    // the number of seconds it stays fresh after each fill or refresh,
+    // and it's string ID, and how much of its segment's weight budget it uses.
+    // prevAccess/nextAccess place it in the queue of its segment's eviction policy
+    // that queue names, ordered from least to most recently used,
+    // prevTimer/nextTimer place it in a bucket of its segment's timer wheel.
+
+    /* Thread Safety Argument */
+    // A BufferObject is only reachable through the segment that created it,
+    // and every method is called while holding that segment's lock.
 
     /**
      * Creates a new BufferItem containing a null buffer object and timeout length in seconds.
+     * Its times are set when it is filled, from the owning segment's ticker, and its
+     * timeout is replaced by the one each fill gives.
      *
      * @param timeout positive integer representing seconds
      */
     public BufferObject(int timeout) {
-        long currentTime = System.currentTimeMillis();
         this.timeout = timeout;
-        this.nextTimeout = currentTime + (long) timeout * MILLIS_PER_SEC;
-        this.lastAccess = currentTime;
-
-
         this.bufferObject = null;
         this.id = null;
     }
 
     /**
-     * Thread-safe method that returns a boolean if this bufferObject is stale or not.
+     * Returns a boolean if this bufferObject is stale or not.
      *
+     * @param currentTime the current time in milliseconds
      * @return boolean true if the current time is equal or exceeds the nextTimeout time
      * and false otherwise.
      */
-    synchronized boolean isStale() {
-        long currentTime = System.currentTimeMillis();
+    boolean isStale(long currentTime) {
         return currentTime >= nextTimeout;
     }
 
     /**
-     * Thread-safe method that updates the nextTimeout time with the current time
-     * at method call and timeout.
+     * Updates the nextTimeout time with the given current time and timeout.
      * The method caller cannot refresh on a stale bufferObject item.
      *
+     * @param currentTime the current time in milliseconds
      * @return boolean true if the refresh method was called successfully.
      */
-    synchronized boolean refresh() {
-        long currentTime = System.currentTimeMillis();
+    boolean refresh(long currentTime) {
         this.nextTimeout = currentTime + (long) timeout * MILLIS_PER_SEC;
         this.lastAccess = currentTime;
         return true;
     }
 
     /**
-     * Thread-safe method that returns the lastAccess time of this buffer object.
+     * Marks this bufferObject as used at the given time without delaying its timeout.
+     *
+     * @param currentTime the current time in milliseconds
+     */
+    void access(long currentTime) {
+        this.lastAccess = currentTime;
+    }
+
+    /**
+     * Moves the time at which this buffer object goes stale, for an object that
+     * keeps the expiry time it had before it left memory.
+     *
+     * @param expiresAt the time, in milliseconds, at which the object goes stale
+     */
+    void expireAt(long expiresAt) {
+        this.nextTimeout = expiresAt;
+    }
+
+    /**
+     * Returns the time at which this buffer object goes stale.
+     *
+     * @return long nextTimeout time representing milliseconds.
+     */
+    long expiresAt() {
+        return nextTimeout;
+    }
+
+    /**
+     * Returns how long this buffer object stays fresh after it is filled or refreshed.
+     *
+     * @return int timeout in seconds, as given to the last fill.
+     */
+    int timeout() {
+        return timeout;
+    }
+
+    /**
+     * Returns how much of its segment's weight budget this buffer object uses.
+     *
+     * @return int weight, 1 for buffers bounded by number of objects.
+     */
+    int weight() {
+        return weight;
+    }
+
+    /**
+     * Returns the lastAccess time of this buffer object.
      *
      * @return long access time of bufferObject representing milliseconds.
      */
-    synchronized long timeLastAccessed() {
+    long timeLastAccessed() {
         return lastAccess;
     }
 
     /**
-     * Thread-safe method that checks if this bufferObject is null.
+     * Checks if this bufferObject is null.
      *
      * @return boolean true if bufferObjects is null otherwise false.
      */
-    synchronized boolean isEmpty() {
-        return this.bufferObject == null;
+    boolean isEmpty() {
+        return this.bufferObject == null && this.offHeapObject == null;
     }
 
     /**
-     * Thread-safe method that returns the id string name of the buffer object.
+     * Returns the id string name of the buffer object.
      * It is possible for string ID to be null.
      *
      * @return String id of this bufferObject
      */
-    synchronized String id() {
+    String id() {
         return this.id;
     }
 
     /**
-     * Thread-safe method that returns this bufferObject.
+     * Returns this bufferObject.
      * It is possible for bufferObject to be null.
      *
      * @return generic type, bufferObject, which extends Bufferable
      */
-    synchronized T getItem() {
+    T getItem() {
         return this.bufferObject;
     }
 
     /**
-     * Thread-safe method that updates this bufferObject with another Bufferable object.
+     * Updates this bufferObject with another Bufferable object.
      *
-     * @param object bufferObject extends Bufferable
+     * @param object      bufferObject extends Bufferable
+     * @param currentTime the current time in milliseconds
+     * @param weight      the weight of object, {@code weight} >= 0
+     * @param timeout     the number of seconds object stays fresh, {@code timeout} >= 0
      */
-    synchronized void fill(T object) {
+    void fill(T object, long currentTime, int weight, int timeout) {
         this.bufferObject = object;
+        this.offHeapObject = null;
         this.id = object.id();
-        long currentTime = System.currentTimeMillis();
+        this.weight = weight;
+        this.timeout = timeout;
         lastAccess = currentTime;
         nextTimeout = currentTime + (long) timeout * MILLIS_PER_SEC;
     }
 
+    /**
+     * Returns the direct memory block holding this bufferObject's bytes
+     * in an off-heap segment.
+     *
+     * @return the block passed to the last fillOffHeap, or null
+     */
+    ByteBuffer getOffHeapItem() {
+        return this.offHeapObject;
+    }
+
+    /**
+     * Updates this bufferObject with the bytes of another Bufferable object
+     * stored outside the heap.
+     *
+     * @param id          the id of the stored object
+     * @param block       the direct memory block holding the object's bytes
+     * @param currentTime the current time in milliseconds
+     * @param weight      the weight of the object, {@code weight} >= 0
+     * @param timeout     the number of seconds the object stays fresh, {@code timeout} >= 0
+     */
+    void fillOffHeap(String id, ByteBuffer block, long currentTime, int weight, int timeout) {
+        this.bufferObject = null;
+        this.offHeapObject = block;
+        this.id = id;
+        this.weight = weight;
+        this.timeout = timeout;
+        lastAccess = currentTime;
+        nextTimeout = currentTime + (long) timeout * MILLIS_PER_SEC;
+    }
+
+    /**
+     * Drops the wrapped object so that it can be garbage collected once this
+     * bufferObject leaves its buffer.
+     */
+    void clear() {
+        this.bufferObject = null;
+        this.offHeapObject = null;
+        this.id = null;
+    }
+
 }
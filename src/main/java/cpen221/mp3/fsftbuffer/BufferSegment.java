@@ -0,0 +1,891 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+class BufferSegment<T extends Bufferable> {
+
+    /* passed as an expiry time to give an object the full timeout from expiry */
+    static final long DEFAULT_EXPIRY = -1;
+
+    private static final long MILLIS_PER_SEC = 1000;
+
+    /* the number of misses answered by the filter that are kept, until the lock is
+     * next taken, to be recorded with the policy; a power of two */
+    private static final int FILTERED_MISS_BUFFER = 128;
+
+    private final Map<String, BufferObject<T>> index = new HashMap<>();
+    private final SegmentPolicy<T> policy;
+    private final TimerWheel<T> timerWheel;
+    private final Weigher<? super T> weigher;
+    private final Serializer<T> serializer;
+    private final OffHeapStore offHeap;
+    private final DiskTier<T> diskTier;
+    private final Consumer<String> refresher;
+    private final AbsentIds absent;
+    private final MissFilter filter;
+    private final AtomicReferenceArray<String> filteredMisses;
+    private final AtomicLong filteredMissWrites = new AtomicLong();
+    private long filteredMissReads;
+    private final Ticker ticker;
+    private final StatsCounter stats;
+    private final RemovalListener<? super T> removalListener;
+    private final Executor removalExecutor;
+    private final ConcurrentLinkedQueue<Removal<T>> removals;
+    private final Expiry<? super T> expiry;
+    private final double refreshAfter;
+    private final long graceMillis;
+    private final long maximumWeight;
+    private long totalWeight;
+
+    /* Representation Invariant */
+    // totalWeight is the sum of the weights of the BufferObjects in index,
+    // and is at most maximumWeight between calls.
+    // every key in index equals the id() of the BufferObject it maps to.
+    // every BufferObject in index has been passed to policy.recordInsert and not to
+    // policy.recordRemoval, and is scheduled exactly once in timerWheel;
+    // no other BufferObject is.
+    // maximumWeight is greater than or equal to zero.
+    // serializer and offHeap are either both null or both non-null; when non-null,
+    // every BufferObject in index holds its object as an off-heap block from offHeap.
+    // expiry is non-null.
+    // refreshAfter is in (0, 1], graceMillis is greater than or equal to zero, and
+    // graceMillis is zero unless refresher is non-null.
+    // if absent is non-null, no id in absent is a key in index.
+    // if filter is non-null, it holds exactly the keys of index and the ids in absent,
+    // and filteredMisses is non-null; filteredMissReads <= filteredMissWrites.
+    // removalListener, removalExecutor and removals are either all null or all non-null.
+
+    /* Abstraction Function */
+    // a BufferSegment is the share of an FSFTBuffer's objects whose ids hash to it:
+    // the set of BufferObjects in index that are not stale, with an immutable weight budget
+    // and expiry once created. When the segment is bounded by number of objects,
+    // weigher gives every object a weight of one and maximumWeight is the capacity.
+    // policy decides which object is removed when the segment is over its budget.
+    // When there is a diskTier, the objects it removes move there instead of being dropped.
+    // An off-heap segment keeps only the ids and bookkeeping of its objects on the heap;
+    // each object is the result of deserializing the bytes in its off-heap block.
+    // Stale objects may stay in index until timerWheel is advanced past their timeout
+    // and grace period, which happens on every put and at least once a second.
+    // They are only returned by get(), and only during their grace period.
+    // Each object stays fresh for the timeout expiry gave it when it was put or updated.
+    // With a refresher, a get() of an object the fraction refreshAfter of its timeout or
+    // more after it was last refreshed asks the refresher to reload it in the background.
+    // absent, if non-null, holds the ids a loader recently found no object for;
+    // they are negative entries, which stop being absent once an object is put for them.
+    // filter, if non-null, answers for any id whether it is certainly neither in index
+    // nor in absent, so that most gets of ids the segment does not hold skip the lock.
+    // The ids of those gets, from filteredMissReads up to filteredMissWrites, wait in the
+    // ring filteredMisses to be recorded with the policy as misses. The ring is lossy:
+    // when more misses arrive between two drains than it holds, only the latest are kept,
+    // which frequency-aware policies tolerate since they only estimate frequencies.
+    // With a removalListener, removals holds the objects removed from index, and the
+    // values update overwrote, that have not been handed to removalExecutor yet.
+
+    /* Thread Safety Argument */
+    // put(), get(), update(), touch() and expire() are all methods that must access
+    // index, the eviction policy and the timer wheel.
+    // All of them hold the lock on the segment itself whenever they do, so only one of
+    // them can read or modify the representation at a given time.
+    // BufferObjects never escape the segment, so they are only ever
+    // touched while this lock is held.
+    // Apart from advancing the timer wheel, each of these methods does a constant amount
+    // of work while holding the lock: one hash lookup and a fixed number of policy updates,
+    // each of which is constant time for the built-in policies.
+    // Advancing the wheel is amortized constant time per object over its lifetime.
+    // Weights and timeouts are computed before the lock is taken.
+    // In an off-heap segment, objects are serialized before and deserialized after
+    // the lock is held, and only the byte copies to and from direct memory happen under it.
+    // Objects removed for space are written to diskTier after the lock is released,
+    // so disk writes never block other operations on the segment.
+    // refresher is likewise only called after get() has released the lock.
+    // ticker is thread-safe, and every time is read from it once per operation.
+    // stats is thread-safe without locking (see StatsCounter).
+    // absent is only used while holding the lock, like index.
+    // filter is only changed while holding the lock, together with index and absent,
+    // and is read without it. A get that reads the filter during a put may miss the
+    // object being put, as if the get had run just before the put.
+    // filteredMisses and filteredMissWrites are atomic, so gets add to the ring without
+    // the lock; filteredMissReads is only used while holding the lock, which drains the ring.
+    // Removals are added to the concurrent queue removals while holding the lock, and
+    // every operation that can remove objects hands the queued removals to
+    // removalExecutor after releasing it, so listeners never run under the lock.
+
+    /**
+     * Create a segment with a fixed weight budget and a timeout for each object.
+     *
+     * @param maximumWeight the total weight of objects the segment can hold
+     * @param weigher       computes the weight of each object, non-null
+     * @param expiry        computes the duration, in seconds, each object should
+     *                      be in the segment before it times out, non-null
+     * @param policy        a new, empty eviction policy used only by this segment
+     * @param serializer    converts objects to the bytes stored outside the heap,
+     *                      or null to keep objects on the heap
+     * @param diskTier      the tier receiving objects removed for space, or null
+     *                      to drop them
+     * @param refresher     called with the id of an object that should be reloaded in the
+     *                      background, or null to never refresh objects ahead of time
+     * @param refreshAfter  the fraction of its timeout after an object is put, updated or
+     *                      touched that a get asks the refresher to reload it, in (0, 1]
+     * @param graceMillis   how long stale objects are still returned by get while they are
+     *                      reloaded, {@code >= 0}; ignored without a refresher
+     * @param absent        a new, empty set of ids with no object used only by this
+     *                      segment, or null to not remember such ids; if {@code filter}
+     *                      is non-null, absent must keep it told of the ids it holds
+     * @param filter        a new, empty filter used only by this segment, or null to take
+     *                      the lock on every get
+     * @param ticker        the source of the current time, non-null
+     * @param stats         records evictions and expirations, shared with the buffer
+     * @param removalListener told of every object removed from the segment, or null
+     * @param removalExecutor runs removalListener, non-null if removalListener is
+     */
+    BufferSegment(long maximumWeight, Weigher<? super T> weigher, Expiry<? super T> expiry,
+                  SegmentPolicy<T> policy, Serializer<T> serializer, DiskTier<T> diskTier,
+                  Consumer<String> refresher, double refreshAfter, long graceMillis,
+                  AbsentIds absent, MissFilter filter, Ticker ticker, StatsCounter stats,
+                  RemovalListener<? super T> removalListener, Executor removalExecutor) {
+        this.expiry = expiry;
+        this.maximumWeight = Math.max(maximumWeight, 0);
+        this.weigher = weigher;
+        this.policy = policy;
+        this.serializer = serializer;
+        this.offHeap = serializer == null ? null : new OffHeapStore();
+        this.diskTier = diskTier;
+        this.refresher = refresher;
+        this.absent = absent;
+        this.filter = filter;
+        this.filteredMisses = filter == null
+            ? null : new AtomicReferenceArray<>(FILTERED_MISS_BUFFER);
+        this.ticker = ticker;
+        this.stats = stats;
+        this.removalListener = removalListener;
+        this.removalExecutor = removalListener == null ? null : removalExecutor;
+        this.removals = removalListener == null ? null : new ConcurrentLinkedQueue<>();
+        this.refreshAfter = refreshAfter;
+        this.graceMillis = refresher == null ? 0 : Math.max(graceMillis, 0);
+        this.timerWheel = new TimerWheel<>(ticker.currentTimeMillis(), this.graceMillis);
+    }
+
+    /**
+     * Add a value to the segment, removing stale objects first and then
+     * the objects chosen by the eviction policy until the segment is within its budget.
+     * An object with the same id that is stale but in its grace period is replaced.
+     * An object heavier than the whole budget is not added, and nothing is removed for it.
+     *
+     * @param t the object to add
+     * @return true if the object is in the segment afterwards, false otherwise
+     */
+    boolean put(T t) {
+        return put(t, null, DEFAULT_EXPIRY);
+    }
+
+    /**
+     * Add a value to the segment, like put(t), but going stale at a given time.
+     *
+     * @param t         the object to add
+     * @param bytes     the serialized form of {@code t}, or null to serialize it if needed
+     * @param expiresAt the time, in milliseconds, at which {@code t} goes stale,
+     *                  or DEFAULT_EXPIRY for the segment's timeout from now
+     * @return true if the object is in the segment afterwards, false otherwise
+     */
+    boolean put(T t, byte[] bytes, long expiresAt) {
+        int weight = weigher.weigh(t);
+        if (weight > maximumWeight) {
+            return false;
+        }
+        int timeout = timeoutOf(t);
+        if (offHeap != null && bytes == null) {
+            bytes = serializer.serialize(t);
+        }
+
+        List<DiskTier.Entry<T>> spilled = new ArrayList<>(0);
+        boolean added;
+        synchronized (this) {
+            long currentTime = ticker.currentTimeMillis();
+            timerWheel.advance(currentTime, this::removeStale);
+            added = insert(t, bytes, expiresAt, weight, timeout, currentTime, spilled);
+        }
+        spill(spilled);
+        notifyRemovals();
+        return added;
+    }
+
+    /**
+     * Adds several values to the segment while taking its lock once, with the same
+     * result as calling put on each of them in order.
+     *
+     * @param objects the objects to add
+     * @return true if every object was in the segment right after it was added,
+     * false otherwise
+     */
+    boolean putAll(List<T> objects) {
+        int[] weights = new int[objects.size()];
+        int[] timeouts = new int[objects.size()];
+        byte[][] serialized = new byte[objects.size()][];
+        for (int object = 0; object < objects.size(); object++) {
+            weights[object] = weigher.weigh(objects.get(object));
+            timeouts[object] = timeoutOf(objects.get(object));
+            if (offHeap != null && weights[object] <= maximumWeight) {
+                serialized[object] = serializer.serialize(objects.get(object));
+            }
+        }
+
+        List<DiskTier.Entry<T>> spilled = new ArrayList<>(0);
+        boolean addedAll = true;
+        synchronized (this) {
+            long currentTime = ticker.currentTimeMillis();
+            timerWheel.advance(currentTime, this::removeStale);
+            for (int object = 0; object < objects.size(); object++) {
+                if (weights[object] > maximumWeight) {
+                    addedAll = false;
+                } else {
+                    addedAll &= insert(objects.get(object), serialized[object], DEFAULT_EXPIRY,
+                        weights[object], timeouts[object], currentTime, spilled);
+                }
+            }
+        }
+        spill(spilled);
+        notifyRemovals();
+        return addedAll;
+    }
+
+    /**
+     * Adds an object unless a fresh object with its id is already in the segment,
+     * then evicts until the segment is within its budget.
+     * Must be called while holding the segment's lock.
+     *
+     * @param t           the object to add
+     * @param bytes       the serialized form of {@code t}, non-null if this segment is off-heap
+     * @param expiresAt   the time at which {@code t} goes stale, or DEFAULT_EXPIRY
+     * @param weight      the weight of {@code t}, at most maximumWeight
+     * @param timeout     the number of seconds {@code t} stays fresh
+     * @param currentTime the current time in milliseconds
+     * @param spilled     receives the evicted objects to write to diskTier
+     * @return true if the object is in the segment afterwards, false otherwise
+     */
+    private boolean insert(T t, byte[] bytes, long expiresAt, int weight, int timeout,
+                           long currentTime, List<DiskTier.Entry<T>> spilled) {
+        drainFilteredMisses();
+        BufferObject<T> existing = live(t.id(), currentTime);
+        if (existing != null) {
+            if (!existing.isStale(currentTime)) {
+                return true;
+            }
+            removeStale(existing);
+        }
+
+        if (absent != null) {
+            absent.remove(t.id());
+        }
+        BufferObject<T> bufferObject = new BufferObject<>(timeout);
+        fill(bufferObject, t, bytes, currentTime, weight, timeout);
+        if (expiresAt != DEFAULT_EXPIRY) {
+            bufferObject.expireAt(expiresAt);
+        }
+        index.put(t.id(), bufferObject);
+        if (filter != null) {
+            filter.add(t.id());
+        }
+        totalWeight += weight;
+        policy.recordInsert(bufferObject);
+        timerWheel.schedule(bufferObject);
+        evict(spilled);
+        return index.get(t.id()) == bufferObject;
+    }
+
+    /**
+     * If the object is due for a refresh, the refresher is asked to reload it.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object that matches the identifier from the
+     * segment, which may be stale if it is in its grace period,
+     * or null if there is no such object
+     */
+    T get(String id) {
+        if (filter != null && !filter.mightContain(id)) {
+            recordFilteredMiss(id);
+            return null;
+        }
+        T item = null;
+        byte[] bytes = null;
+        boolean refresh;
+        synchronized (this) {
+            long currentTime = ticker.currentTimeMillis();
+            BufferObject<T> bufferObject = access(id, currentTime);
+            if (bufferObject == null) {
+                recordFilterPassed(id, currentTime);
+                refresh = false;
+            } else {
+                refresh = refreshDue(bufferObject, currentTime);
+                if (offHeap == null) {
+                    item = bufferObject.getItem();
+                } else {
+                    bytes = offHeap.load(bufferObject.getOffHeapItem());
+                }
+            }
+        }
+        notifyRemovals();
+        if (refresh) {
+            refresher.accept(id);
+        }
+        return bytes == null ? item : serializer.deserialize(bytes);
+    }
+
+    /**
+     * Looks up an object without recording a hit, a miss or a use with the policy,
+     * and without asking for a refresh.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object with {@code id}, or null if there is none that is not stale
+     */
+    T peek(String id) {
+        if (filter != null && !filter.mightContain(id)) {
+            return null;
+        }
+        T item = null;
+        byte[] bytes = null;
+        synchronized (this) {
+            BufferObject<T> bufferObject = index.get(id);
+            if (bufferObject != null && !bufferObject.isStale(ticker.currentTimeMillis())) {
+                if (offHeap == null) {
+                    item = bufferObject.getItem();
+                } else {
+                    bytes = offHeap.load(bufferObject.getOffHeapItem());
+                }
+            }
+        }
+        return bytes == null ? item : serializer.deserialize(bytes);
+    }
+
+    /**
+     * Looks up several objects while taking the segment's lock once, with the same
+     * result as calling get on each of them.
+     *
+     * @param ids   the identifiers of the objects to be retrieved
+     * @param found receives each id that matches an object, mapped to that object
+     */
+    void getAll(List<String> ids, Map<String, T> found) {
+        Map<String, byte[]> serialized = offHeap == null ? null : new HashMap<>();
+        List<String> refresh = new ArrayList<>(0);
+        if (filter != null) {
+            List<String> candidates = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                if (filter.mightContain(id)) {
+                    candidates.add(id);
+                } else {
+                    recordFilteredMiss(id);
+                }
+            }
+            if (candidates.isEmpty()) {
+                return;
+            }
+            ids = candidates;
+        }
+        synchronized (this) {
+            long currentTime = ticker.currentTimeMillis();
+            for (String id : ids) {
+                BufferObject<T> bufferObject = access(id, currentTime);
+                if (bufferObject == null) {
+                    recordFilterPassed(id, currentTime);
+                    continue;
+                }
+                if (refreshDue(bufferObject, currentTime)) {
+                    refresh.add(id);
+                }
+                if (offHeap == null) {
+                    found.put(id, bufferObject.getItem());
+                } else {
+                    serialized.put(id, offHeap.load(bufferObject.getOffHeapItem()));
+                }
+            }
+        }
+        notifyRemovals();
+        if (serialized != null) {
+            for (Map.Entry<String, byte[]> entry : serialized.entrySet()) {
+                found.put(entry.getKey(), serializer.deserialize(entry.getValue()));
+            }
+        }
+        for (String id : refresh) {
+            refresher.accept(id);
+        }
+    }
+
+    /**
+     * Counts a get the filter answered without the lock, and keeps its id to be recorded
+     * with the policy the next time the lock is taken.
+     *
+     * @param id the identifier the filter found certainly not resident
+     */
+    private void recordFilteredMiss(String id) {
+        stats.recordFilteredMiss();
+        long write = filteredMissWrites.getAndIncrement();
+        filteredMisses.lazySet((int) write & (FILTERED_MISS_BUFFER - 1), id);
+    }
+
+    /**
+     * Records the misses waiting in filteredMisses with the policy.
+     * Must be called while holding the segment's lock.
+     */
+    private void drainFilteredMisses() {
+        if (filter == null) {
+            return;
+        }
+        long writes = filteredMissWrites.get();
+        for (long read = Math.max(filteredMissReads, writes - FILTERED_MISS_BUFFER);
+             read < writes; read++) {
+            String id = filteredMisses.getAndSet((int) read & (FILTERED_MISS_BUFFER - 1), null);
+            if (id != null) {
+                policy.recordMiss(id);
+            }
+        }
+        filteredMissReads = writes;
+    }
+
+    /**
+     * Counts a get the filter let through but that found no object, unless it found a
+     * negative entry, which the filter also holds.
+     * Must be called while holding the segment's lock.
+     *
+     * @param id          the identifier that was looked up
+     * @param currentTime the current time in milliseconds
+     */
+    private void recordFilterPassed(String id, long currentTime) {
+        if (filter != null && (absent == null || !absent.contains(id, currentTime))) {
+            stats.recordFilterFalsePositive();
+        }
+    }
+
+    /**
+     * Looks up an object for a get, recording the access or the miss with the policy.
+     * Must be called while holding the segment's lock.
+     *
+     * @param id          the identifier of the object to be retrieved
+     * @param currentTime the current time in milliseconds
+     * @return the BufferObject with {@code id}, or null if there is none
+     */
+    private BufferObject<T> access(String id, long currentTime) {
+        BufferObject<T> bufferObject = live(id, currentTime);
+        if (bufferObject == null) {
+            policy.recordMiss(id);
+            return null;
+        }
+        bufferObject.access(currentTime);
+        policy.recordAccess(bufferObject);
+        return bufferObject;
+    }
+
+    /**
+     * Must be called while holding the segment's lock.
+     *
+     * @param bufferObject an object in index
+     * @param currentTime  the current time in milliseconds
+     * @return true if the refresher should reload {@code bufferObject} now
+     */
+    private boolean refreshDue(BufferObject<T> bufferObject, long currentTime) {
+        if (refresher == null) {
+            return false;
+        }
+        long timeoutMillis = bufferObject.timeout() * MILLIS_PER_SEC;
+        return currentTime >= bufferObject.expiresAt() - timeoutMillis
+            + (long) (refreshAfter * timeoutMillis);
+    }
+
+    /**
+     * Delays the timeout of the object with the provided id.
+     *
+     * @param id the identifier of the object to "touch"
+     * @return true if successful and false otherwise
+     */
+    boolean touch(String id) {
+        boolean touched = false;
+        synchronized (this) {
+            long currentTime = ticker.currentTimeMillis();
+            BufferObject<T> bufferObject = live(id, currentTime);
+            if (bufferObject != null && !bufferObject.isStale(currentTime)) {
+                bufferObject.refresh(currentTime);
+                policy.recordAccess(bufferObject);
+                timerWheel.reschedule(bufferObject);
+                touched = true;
+            }
+        }
+        notifyRemovals();
+        return touched;
+    }
+
+    /**
+     * Removes the object with the given id, reporting it as removed explicitly,
+     * and forgets any negative entry for the id.
+     *
+     * @param id the identifier of the object to remove
+     * @return true if there was an object with {@code id} that was not stale,
+     * false otherwise
+     */
+    boolean invalidate(String id) {
+        boolean removed = false;
+        synchronized (this) {
+            long currentTime = ticker.currentTimeMillis();
+            BufferObject<T> bufferObject = live(id, currentTime);
+            if (bufferObject != null) {
+                removed = !bufferObject.isStale(currentTime);
+                remove(bufferObject, RemovalCause.EXPLICIT);
+            }
+            if (absent != null) {
+                absent.remove(id);
+            }
+        }
+        notifyRemovals();
+        return removed;
+    }
+
+    /**
+     * Replaces the object with the same id as {@code t} and delays its timeout.
+     * An object that is stale but in its grace period can be replaced, which is how
+     * a refresh makes it fresh again.
+     * If {@code t} is heavier than the object it replaces, other objects may be
+     * removed to stay within the weight budget.
+     *
+     * @param t the object to update
+     * @return true if successful and false otherwise
+     */
+    boolean update(T t) {
+        int weight = weigher.weigh(t);
+        int timeout = timeoutOf(t);
+        byte[] bytes = offHeap == null ? null : serializer.serialize(t);
+
+        List<DiskTier.Entry<T>> spilled = new ArrayList<>(0);
+        boolean updated;
+        synchronized (this) {
+            long currentTime = ticker.currentTimeMillis();
+            BufferObject<T> bufferObject = live(t.id(), currentTime);
+            if (bufferObject == null || weight > maximumWeight) {
+                if (bufferObject != null) {
+                    remove(bufferObject, RemovalCause.SIZE);
+                }
+                updated = false;
+            } else {
+                replace(bufferObject, t, bytes, currentTime, weight, timeout);
+                evict(spilled);
+                updated = index.get(t.id()) == bufferObject;
+            }
+        }
+        spill(spilled);
+        notifyRemovals();
+        return updated;
+    }
+
+    /**
+     * Replaces the object in a bufferObject with another with the same id, and restarts
+     * its timeout. The segment may be over its budget afterwards.
+     * Must be called while holding the segment's lock.
+     *
+     * @param bufferObject the bufferObject in index to fill again
+     * @param t            the new object
+     * @param bytes        the serialized form of {@code t}, or null if this segment is
+     *                     not off-heap
+     * @param currentTime  the current time in milliseconds
+     * @param weight       the weight of {@code t}
+     * @param timeout      the number of seconds {@code t} stays fresh
+     */
+    private void replace(BufferObject<T> bufferObject, T t, byte[] bytes, long currentTime,
+                         int weight, int timeout) {
+        recordRemoval(bufferObject, RemovalCause.REPLACED);
+        if (offHeap != null) {
+            offHeap.release(bufferObject.getOffHeapItem());
+        }
+        if (weight == bufferObject.weight()) {
+            fill(bufferObject, t, bytes, currentTime, weight, timeout);
+            policy.recordAccess(bufferObject);
+        } else {
+            // Policies may keep per-queue weights, so re-insert rather than change in place.
+            policy.recordRemoval(bufferObject);
+            totalWeight += weight - bufferObject.weight();
+            fill(bufferObject, t, bytes, currentTime, weight, timeout);
+            policy.recordInsert(bufferObject);
+        }
+        timerWheel.reschedule(bufferObject);
+    }
+
+    /**
+     * Copies out the objects that are not stale, for a snapshot of the buffer.
+     * Unlike the other methods, this takes time proportional to the size of the segment,
+     * and sorting the objects by last access takes O(n log n) time, while holding the lock;
+     * objects are serialized after it is released.
+     *
+     * @return the objects, with the time they go stale, least recently used first
+     */
+    List<DiskTier.Entry<T>> snapshot() {
+        synchronized (this) {
+            long currentTime = ticker.currentTimeMillis();
+            List<BufferObject<T>> fresh = new ArrayList<>(index.size());
+            for (BufferObject<T> bufferObject : index.values()) {
+                if (!bufferObject.isStale(currentTime)) {
+                    fresh.add(bufferObject);
+                }
+            }
+            fresh.sort(Comparator.comparingLong(BufferObject::timeLastAccessed));
+
+            List<DiskTier.Entry<T>> entries = new ArrayList<>(fresh.size());
+            for (BufferObject<T> bufferObject : fresh) {
+                byte[] bytes = offHeap == null
+                    ? null : offHeap.load(bufferObject.getOffHeapItem());
+                entries.add(new DiskTier.Entry<>(bufferObject.id(), bufferObject.expiresAt(),
+                    bufferObject.getItem(), bytes));
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Checks for a negative entry: an id a loader recently found no object for.
+     *
+     * @param id the identifier to look up
+     * @return true if {@code id} is remembered as having no object, false otherwise
+     * or if this segment does not remember such ids
+     */
+    boolean isAbsent(String id) {
+        if (absent == null || filter != null && !filter.mightContain(id)) {
+            return false;
+        }
+        synchronized (this) {
+            return absent.contains(id, ticker.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Adds a negative entry, so that isAbsent(id) is true until it times out or an
+     * object with {@code id} is put. Does nothing if this segment does not remember
+     * such ids, or if there is already an object with {@code id}.
+     *
+     * @param id the identifier a loader found no object for
+     */
+    synchronized void markAbsent(String id) {
+        if (absent != null && !index.containsKey(id)) {
+            absent.add(id, ticker.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Removes the objects that have gone stale since the last time the
+     * timer wheel was advanced, releasing their references, and the negative
+     * entries that have timed out.
+     */
+    void expire() {
+        synchronized (this) {
+            long currentTime = ticker.currentTimeMillis();
+            drainFilteredMisses();
+            timerWheel.advance(currentTime, this::removeStale);
+            if (absent != null) {
+                absent.expire(currentTime);
+            }
+        }
+        notifyRemovals();
+    }
+
+    /**
+     * Stores an object in a bufferObject, off the heap if this is an off-heap segment.
+     * Must be called while holding the segment's lock.
+     *
+     * @param bufferObject the bufferObject to fill
+     * @param t            the object to store
+     * @param bytes        the serialized form of {@code t}, or null if this segment is
+     *                     not off-heap
+     * @param currentTime  the current time in milliseconds
+     * @param weight       the weight of {@code t}
+     * @param timeout      the number of seconds {@code t} stays fresh
+     */
+    private void fill(BufferObject<T> bufferObject, T t, byte[] bytes, long currentTime,
+                      int weight, int timeout) {
+        if (offHeap == null) {
+            bufferObject.fill(t, currentTime, weight, timeout);
+        } else {
+            bufferObject.fillOffHeap(t.id(), offHeap.store(bytes), currentTime, weight,
+                timeout);
+        }
+    }
+
+    /**
+     * Asks expiry how long an object stays fresh.
+     * Must be called without holding the segment's lock, since expiry may be slow.
+     *
+     * @param t the object being put or updated
+     * @return the number of seconds {@code t} stays fresh, {@code >= 0}
+     */
+    private int timeoutOf(T t) {
+        return Math.max(expiry.timeout(t), 0);
+    }
+
+    /**
+     * Removes the objects chosen by the eviction policy until the segment is within
+     * its weight budget.
+     * Must be called while holding the segment's lock.
+     *
+     * @param spilled receives the removed objects to write to diskTier, if there is one
+     */
+    private void evict(List<DiskTier.Entry<T>> spilled) {
+        while (totalWeight > maximumWeight) {
+            BufferObject<T> victim = policy.victim();
+            if (diskTier != null) {
+                // Off-heap bytes must be copied out before remove() releases their block.
+                byte[] bytes = offHeap == null ? null : offHeap.load(victim.getOffHeapItem());
+                spilled.add(new DiskTier.Entry<>(victim.id(), victim.expiresAt(),
+                    victim.getItem(), bytes));
+            }
+            stats.recordEviction(victim.weight());
+            // An object moved to diskTier is still in the buffer, so it is not reported.
+            remove(victim, diskTier == null ? RemovalCause.SIZE : null);
+        }
+    }
+
+    /**
+     * Writes objects removed for space to diskTier.
+     * Must be called without holding the segment's lock.
+     *
+     * @param spilled the objects collected by evict
+     */
+    private void spill(List<DiskTier.Entry<T>> spilled) {
+        if (!spilled.isEmpty()) {
+            diskTier.store(spilled);
+        }
+    }
+
+    /**
+     * Looks up the object with the given id, dropping it if its grace period has ended.
+     * Must be called while holding the segment's lock.
+     *
+     * @param id          the identifier to look up
+     * @param currentTime the current time in milliseconds
+     * @return the BufferObject with {@code id}, which is stale only if it is
+     * in its grace period, or null if there is none
+     */
+    private BufferObject<T> live(String id, long currentTime) {
+        BufferObject<T> bufferObject = index.get(id);
+        if (bufferObject != null && bufferObject.isStale(currentTime - graceMillis)) {
+            removeStale(bufferObject);
+            return null;
+        }
+        return bufferObject;
+    }
+
+    /**
+     * Removes an object because it has gone stale.
+     * Must be called while holding the segment's lock.
+     *
+     * @param bufferObject an object in index
+     */
+    private void removeStale(BufferObject<T> bufferObject) {
+        stats.recordExpiration();
+        remove(bufferObject, RemovalCause.EXPIRED);
+    }
+
+    /**
+     * Unlinks an object from every structure of the segment and drops its value.
+     * The timer wheel may already have descheduled it.
+     * Must be called while holding the segment's lock.
+     *
+     * @param bufferObject an object in index
+     * @param cause        why the object is removed, or null to not report it
+     */
+    private void remove(BufferObject<T> bufferObject, RemovalCause cause) {
+        if (cause != null) {
+            recordRemoval(bufferObject, cause);
+        }
+        index.remove(bufferObject.id());
+        if (filter != null) {
+            filter.remove(bufferObject.id());
+        }
+        totalWeight -= bufferObject.weight();
+        policy.recordRemoval(bufferObject);
+        if (bufferObject.prevTimer != null) {
+            timerWheel.deschedule(bufferObject);
+        }
+        if (offHeap != null) {
+            offHeap.release(bufferObject.getOffHeapItem());
+        }
+        bufferObject.clear();
+    }
+
+    /**
+     * Queues a removal for the listener, copying the object out of its bufferObject
+     * before the bufferObject is cleared or filled again.
+     * Must be called while holding the segment's lock.
+     *
+     * @param bufferObject an object in index whose value is about to be dropped
+     * @param cause        why the value is dropped
+     */
+    private void recordRemoval(BufferObject<T> bufferObject, RemovalCause cause) {
+        if (removals == null) {
+            return;
+        }
+        if (offHeap == null) {
+            removals.add(new Removal<>(bufferObject.id(), bufferObject.getItem(), null, cause));
+        } else {
+            removals.add(new Removal<>(bufferObject.id(), null,
+                offHeap.load(bufferObject.getOffHeapItem()), cause));
+        }
+    }
+
+    /**
+     * Hands the queued removals to removalExecutor, as one task.
+     * Must be called without holding the segment's lock.
+     */
+    private void notifyRemovals() {
+        if (removals == null || removals.isEmpty()) {
+            return;
+        }
+        List<Removal<T>> batch = new ArrayList<>();
+        for (Removal<T> removal = removals.poll(); removal != null; removal = removals.poll()) {
+            batch.add(removal);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            removalExecutor.execute(() -> {
+                for (Removal<T> removal : batch) {
+                    try {
+                        T value = removal.item == null
+                            ? serializer.deserialize(removal.bytes) : removal.item;
+                        removalListener.onRemoval(removal.id, value, removal.cause);
+                    } catch (RuntimeException re) {
+                        // One failing notification must not keep the rest from the listener.
+                        stats.recordRemovalFailures(1);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            stats.recordRemovalFailures(batch.size());
+        }
+    }
+
+    /**
+     * An object removed from the segment, waiting to be reported to the listener.
+     */
+    private static class Removal<T> {
+        private final String id;
+        private final T item;
+        private final byte[] bytes;
+        private final RemovalCause cause;
+
+        /**
+         * @param id    the identifier of the removed object
+         * @param item  the removed object, or null if it is given by {@code bytes}
+         * @param bytes the serialized removed object, or null if {@code item} is non-null
+         * @param cause why the object was removed
+         */
+        Removal(String id, T item, byte[] bytes, RemovalCause cause) {
+            this.id = id;
+            this.item = item;
+            this.bytes = bytes;
+            this.cause = cause;
+        }
+    }
+}
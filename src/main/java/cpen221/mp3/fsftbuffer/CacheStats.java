@@ -0,0 +1,214 @@
+package cpen221.mp3.fsftbuffer;
+
+/**
+ * An immutable snapshot of an FSFTBuffer's counters since it was created.
+ * Rates over an interval can be found by subtracting an earlier snapshot with minus().
+ */
+public class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long evictionCount;
+    private final long evictionWeight;
+    private final long expiredCount;
+    private final long filteredMissCount;
+    private final long filterFalsePositiveCount;
+    private final long removalFailureCount;
+
+    /* Representation Invariant */
+    // every field is greater than or equal to zero, unless the snapshot is
+    // the difference of two snapshots taken in the wrong order.
+
+    /* Abstraction Function */
+    // a CacheStats is the number of gets that found their object (hitCount) and that did not
+    // (missCount), the number of loads that returned an object or failed, and the total time
+    // they took in nanoseconds, the number and total weight of objects removed to make space,
+    // and the number of objects removed because they went stale.
+    // In a buffer with a miss filter, filteredMissCount of the misses were answered by
+    // the filter alone, and filterFalsePositiveCount gets passed the filter but found nothing.
+    // In a buffer with a removal listener, removalFailureCount removals were not reported,
+    // because the listener threw or the executor refused to run it.
+
+    /**
+     * Creates a snapshot of counter values.
+     *
+     * @param hitCount         the number of gets that found their object
+     * @param missCount        the number of gets that did not find their object
+     * @param loadSuccessCount the number of loads that returned an object
+     * @param loadFailureCount the number of loads that returned null or threw
+     * @param totalLoadTime    the total time spent loading, in nanoseconds
+     * @param evictionCount    the number of objects removed to make space
+     * @param evictionWeight   the total weight of the objects removed to make space
+     * @param expiredCount     the number of objects removed because they went stale
+     * @param filteredMissCount        the number of misses answered by the miss filter
+     *                                 without looking in a segment
+     * @param filterFalsePositiveCount the number of gets the miss filter let through
+     *                                 that found no object
+     * @param removalFailureCount      the number of removals the removal listener threw
+     *                                 on, or that were never handed to it
+     */
+    public CacheStats(long hitCount, long missCount, long loadSuccessCount,
+                      long loadFailureCount, long totalLoadTime, long evictionCount,
+                      long evictionWeight, long expiredCount, long filteredMissCount,
+                      long filterFalsePositiveCount, long removalFailureCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+        this.evictionWeight = evictionWeight;
+        this.expiredCount = expiredCount;
+        this.filteredMissCount = filteredMissCount;
+        this.filterFalsePositiveCount = filterFalsePositiveCount;
+        this.removalFailureCount = removalFailureCount;
+    }
+
+    /**
+     * @return the number of gets that found their object
+     */
+    public long hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of gets that did not find their object
+     */
+    public long missCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of gets, hitCount() + missCount()
+     */
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @return the fraction of gets that found their object, or 1 if there were no gets
+     */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * @return the fraction of gets that did not find their object, or 0 if there were no gets
+     */
+    public double missRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 0.0 : (double) missCount / requestCount;
+    }
+
+    /**
+     * @return the number of loads by get(id, loader) and refreshes that returned an object
+     */
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    /**
+     * @return the number of loads by get(id, loader) and refreshes that returned null or threw
+     */
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * @return the total time spent loading, in nanoseconds
+     */
+    public long totalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * @return the average time a load took, in nanoseconds, or 0 if there were no loads
+     */
+    public double averageLoadPenalty() {
+        long loadCount = loadSuccessCount + loadFailureCount;
+        return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+    }
+
+    /**
+     * @return the number of objects removed by the eviction policy to make space
+     */
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the total weight of the objects removed to make space, which is
+     * evictionCount() for buffers bounded by number of objects
+     */
+    public long evictionWeight() {
+        return evictionWeight;
+    }
+
+    /**
+     * @return the number of objects removed because they went stale
+     */
+    public long expiredCount() {
+        return expiredCount;
+    }
+
+    /**
+     * @return the number of misses the miss filter answered without taking a segment's
+     * lock, which is 0 for buffers built without withMissFilter
+     */
+    public long filteredMissCount() {
+        return filteredMissCount;
+    }
+
+    /**
+     * @return the number of gets the miss filter let through that found no object
+     */
+    public long filterFalsePositiveCount() {
+        return filterFalsePositiveCount;
+    }
+
+    /**
+     * @return the fraction of gets for ids the buffer did not hold that the miss filter
+     * let through, or 0 if there were none
+     */
+    public double filterFalsePositiveRate() {
+        long absentCount = filteredMissCount + filterFalsePositiveCount;
+        return absentCount == 0 ? 0.0 : (double) filterFalsePositiveCount / absentCount;
+    }
+
+    /**
+     * @return the number of removals that were not reported: the removal listener threw
+     * on them, or its executor refused to run it. This is 0 for buffers built without
+     * withRemovalListener.
+     */
+    public long removalFailureCount() {
+        return removalFailureCount;
+    }
+
+    /**
+     * @param other an earlier snapshot of the same buffer, non-null
+     * @return the counts between {@code other} and this snapshot
+     */
+    public CacheStats minus(CacheStats other) {
+        return new CacheStats(hitCount - other.hitCount, missCount - other.missCount,
+            loadSuccessCount - other.loadSuccessCount, loadFailureCount - other.loadFailureCount,
+            totalLoadTime - other.totalLoadTime, evictionCount - other.evictionCount,
+            evictionWeight - other.evictionWeight, expiredCount - other.expiredCount,
+            filteredMissCount - other.filteredMissCount,
+            filterFalsePositiveCount - other.filterFalsePositiveCount,
+            removalFailureCount - other.removalFailureCount);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hitCount=" + hitCount + ", missCount=" + missCount
+            + ", loadSuccessCount=" + loadSuccessCount + ", loadFailureCount=" + loadFailureCount
+            + ", totalLoadTime=" + totalLoadTime + ", evictionCount=" + evictionCount
+            + ", evictionWeight=" + evictionWeight + ", expiredCount=" + expiredCount
+            + ", filteredMissCount=" + filteredMissCount
+            + ", filterFalsePositiveCount=" + filterFalsePositiveCount
+            + ", removalFailureCount=" + removalFailureCount + "}";
+    }
+}
@@ -0,0 +1,43 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+final class CoarseTicker implements Ticker {
+
+    /* how often, in milliseconds, the cached time is updated */
+    static final long RESOLUTION_MILLIS = 10;
+
+    static final CoarseTicker INSTANCE = new CoarseTicker();
+
+    private volatile long currentTime = System.currentTimeMillis();
+
+    /* Representation Invariant */
+    // currentTime is a value System.currentTimeMillis() returned at most about
+    // RESOLUTION_MILLIS milliseconds ago.
+
+    /* Abstraction Function */
+    // a CoarseTicker is a clock that reads the system clock at most once every
+    // RESOLUTION_MILLIS milliseconds, however often it is read itself.
+
+    /* Thread Safety Argument */
+    // currentTime is only written by the ticker's own daemon thread, and is volatile,
+    // so every reader sees the latest time written without taking a lock.
+
+    private CoarseTicker() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "FSFTBuffer-ticker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        scheduler.scheduleAtFixedRate(() -> currentTime = System.currentTimeMillis(),
+            RESOLUTION_MILLIS, RESOLUTION_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return currentTime;
+    }
+}
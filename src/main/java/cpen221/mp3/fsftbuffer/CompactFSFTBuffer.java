@@ -0,0 +1,437 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A finite-space, finite-time buffer with least recently used replacement, laid out as
+ * parallel arrays rather than one object per entry.
+ * It offers the basic operations of FSFTBuffer with a fraction of the memory per entry,
+ * for very large capacities of small objects, but without segments, eviction policies,
+ * weights or tiers; every operation takes the buffer's single lock, and does a bounded
+ * amount of work under it.
+ *
+ * @param <T> the type of object held by the buffer
+ */
+public class CompactFSFTBuffer<T extends Bufferable> {
+
+    private static final long MILLIS_PER_SEC = 1000;
+
+    /* marks the absence of a slot in the links and in the id table */
+    private static final int NONE = -1;
+
+    /* the largest capacity, so that the id table stays a power of two within an int */
+    private static final int MAX_CAPACITY = 1 << 29;
+
+    /* the most stale objects cleanUp removes before letting other operations take the lock */
+    private static final int CLEANUP_BATCH = 1024;
+
+    private final String[] ids;
+    private final Object[] values;
+    private final long[] expiresAt;
+    private final int[] prev;
+    private final int[] next;
+    private final int[] older;
+    private final int[] newer;
+    private final int[] table;
+    private final long timeoutMillis;
+    private final Ticker ticker;
+    private int head = NONE;
+    private int tail = NONE;
+    private int oldest = NONE;
+    private int newest = NONE;
+    private int freeHead = NONE;
+    private int used;
+    private int size;
+
+    /* Representation Invariant */
+    // ids, values, expiresAt, prev, next, older and newer all have one element per slot,
+    // and there are as many slots as the capacity.
+    // slots below used either hold an entry, with non-null ids[slot] and values[slot],
+    // or are free, with both null; slots from used up have never held an entry.
+    // the occupied slots form a doubly linked list through prev and next, from head to
+    // tail, and the free slots a singly linked list through next from freeHead.
+    // the occupied slots also form a doubly linked list through older and newer, from
+    // oldest to newest, in which expiresAt never decreases while the ticker does not go back.
+    // no two occupied slots have equal ids, and size is the number of occupied slots.
+    // table.length is a power of two, at least twice the capacity; each element of table
+    // is NONE or an occupied slot, every occupied slot is in table exactly once, and
+    // no NONE lies between the position hash(ids[slot]) and the position of slot in table,
+    // probing forward.
+    // timeoutMillis is greater than or equal to zero.
+
+    /* Abstraction Function */
+    // a CompactFSFTBuffer is the set of entries in occupied slots whose expiresAt has not
+    // passed, each slot holding one entry: the object values[slot] with id ids[slot],
+    // which goes stale at expiresAt[slot].
+    // The list from head to tail orders entries from least to most recently used,
+    // and head is the entry replaced when a put finds the buffer full with no stale entry.
+    // Since every entry has the same timeout, the list from oldest to newest orders entries
+    // by when they were last put, touched or updated, which is the order they go stale in,
+    // so stale entries are found at oldest without looking at fresh ones.
+    // table is an open-addressed hash table from ids to slots, so an id is found by
+    // probing a few adjacent ints instead of following pointers between objects.
+    // Stale entries may stay in their slots until they are looked up, replaced,
+    // or removed by cleanUp().
+
+    /* Thread Safety Argument */
+    // Every method that reads or writes the arrays or the counters is synchronized on
+    // the buffer, so only one of them runs at a time, and the arrays never escape.
+    // cleanUp is not synchronized itself, but only calls the synchronized removeStale.
+    // ticker is thread-safe, and is read once per operation.
+
+    /**
+     * Create a buffer with a fixed capacity and a timeout value.
+     *
+     * @param capacity the number of objects the buffer can hold,
+     *                 0 <= {@code capacity} <= 2^29
+     * @param timeout  the duration, in seconds, an object should
+     *                 be in the buffer before it times out
+     */
+    public CompactFSFTBuffer(int capacity, int timeout) {
+        this(capacity, timeout, Ticker.system());
+    }
+
+    /**
+     * Create a buffer with a fixed capacity and a timeout value, measured with a
+     * given clock.
+     *
+     * @param capacity the number of objects the buffer can hold,
+     *                 0 <= {@code capacity} <= 2^29
+     * @param timeout  the duration, in seconds, an object should
+     *                 be in the buffer before it times out
+     * @param ticker   the source of the current time, non-null
+     */
+    public CompactFSFTBuffer(int capacity, int timeout, Ticker ticker) {
+        if (capacity < 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be from 0 to 2^29");
+        }
+        this.ids = new String[capacity];
+        this.values = new Object[capacity];
+        this.expiresAt = new long[capacity];
+        this.prev = new int[capacity];
+        this.next = new int[capacity];
+        this.older = new int[capacity];
+        this.newer = new int[capacity];
+        this.table = new int[Integer.highestOneBit(Math.max(2 * capacity - 1, 1)) << 1];
+        Arrays.fill(table, NONE);
+        this.timeoutMillis = Math.max(timeout, 0) * MILLIS_PER_SEC;
+        this.ticker = ticker;
+        BufferMaintenance.register(this);
+    }
+
+    /**
+     * Add a value to the buffer.
+     * If the buffer is full then remove a stale object, or if there is none the least
+     * recently used object, to make room for the new object. An object with the same id that is
+     * not stale is kept, and the new object is not added.
+     *
+     * @param t the object to add
+     * @return true if the object is in the buffer afterwards, false otherwise
+     */
+    public synchronized boolean put(T t) {
+        if (ids.length == 0) {
+            return false;
+        }
+        long currentTime = ticker.currentTimeMillis();
+        int slot = live(t.id(), currentTime);
+        if (slot != NONE) {
+            return true;
+        }
+        if (size == ids.length) {
+            remove(currentTime >= expiresAt[oldest] ? oldest : head);
+        }
+        slot = allocate();
+        ids[slot] = t.id();
+        values[slot] = t;
+        expiresAt[slot] = currentTime + timeoutMillis;
+        link(slot);
+        linkNewest(slot);
+        insertIntoTable(slot);
+        size++;
+        return true;
+    }
+
+    /**
+     * @param id the identifier of the object to be retrieved
+     * @return the object that matches the identifier from the buffer
+     * @throws NoSuchElementException if there is no such object, or it is stale
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T get(String id) throws NoSuchElementException {
+        int slot = live(id, ticker.currentTimeMillis());
+        if (slot == NONE) {
+            throw new NoSuchElementException("Id not found in the buffer!");
+        }
+        moveToTail(slot);
+        return (T) values[slot];
+    }
+
+    /**
+     * Update the last refresh time for the object with the provided id.
+     * This method is used to mark an object as "not stale" so that its
+     * timeout is delayed.
+     *
+     * @param id the identifier of the object to "touch"
+     * @return true if successful and false otherwise
+     */
+    public synchronized boolean touch(String id) {
+        long currentTime = ticker.currentTimeMillis();
+        int slot = live(id, currentTime);
+        if (slot == NONE) {
+            return false;
+        }
+        expiresAt[slot] = currentTime + timeoutMillis;
+        moveToTail(slot);
+        moveToNewest(slot);
+        return true;
+    }
+
+    /**
+     * Update an object in the buffer.
+     * This method updates an object and acts like a "touch" to
+     * renew the object in the cache.
+     *
+     * @param t the object to update
+     * @return true if successful and false otherwise
+     */
+    public synchronized boolean update(T t) {
+        long currentTime = ticker.currentTimeMillis();
+        int slot = live(t.id(), currentTime);
+        if (slot == NONE) {
+            return false;
+        }
+        values[slot] = t;
+        expiresAt[slot] = currentTime + timeoutMillis;
+        moveToTail(slot);
+        moveToNewest(slot);
+        return true;
+    }
+
+    /**
+     * @return the number of objects in the buffer, including stale objects
+     * that have not been removed yet
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Removes every object that has gone stale, so that the memory it holds can be
+     * reclaimed without waiting for a put.
+     * This only looks at stale objects, oldest first, and releases the lock between
+     * batches of them, so other operations are not held up for long however many objects
+     * go stale at once. It is called about once a second by a background thread;
+     * it may also be called directly.
+     */
+    public void cleanUp() {
+        while (removeStale()) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Removes up to CLEANUP_BATCH stale objects, oldest first.
+     *
+     * @return true if the batch was full, so there may be more stale objects
+     */
+    private synchronized boolean removeStale() {
+        long currentTime = ticker.currentTimeMillis();
+        for (int removed = 0; removed < CLEANUP_BATCH; removed++) {
+            if (oldest == NONE || currentTime < expiresAt[oldest]) {
+                return false;
+            }
+            remove(oldest);
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the slot of an id, removing its entry if it is stale.
+     *
+     * @param id          the identifier to look up
+     * @param currentTime the current time in milliseconds
+     * @return the slot holding a fresh entry with {@code id}, or NONE if there is none
+     */
+    private int live(String id, long currentTime) {
+        int position = find(id);
+        if (position == NONE) {
+            return NONE;
+        }
+        int slot = table[position];
+        if (currentTime >= expiresAt[slot]) {
+            remove(slot);
+            return NONE;
+        }
+        return slot;
+    }
+
+    /**
+     * @return a free slot, reusing removed slots before slots never used
+     */
+    private int allocate() {
+        if (freeHead == NONE) {
+            return used++;
+        }
+        int slot = freeHead;
+        freeHead = next[slot];
+        return slot;
+    }
+
+    /**
+     * Removes the entry in a slot from the list, the table and the arrays,
+     * and frees the slot.
+     *
+     * @param slot an occupied slot
+     */
+    private void remove(int slot) {
+        removeFromTable(find(ids[slot]));
+        unlink(slot);
+        unlinkExpiry(slot);
+        ids[slot] = null;
+        values[slot] = null;
+        next[slot] = freeHead;
+        freeHead = slot;
+        size--;
+    }
+
+    /**
+     * Appends a slot to the tail of the list, as the most recently used.
+     *
+     * @param slot a slot that is not in the list
+     */
+    private void link(int slot) {
+        prev[slot] = tail;
+        next[slot] = NONE;
+        if (tail == NONE) {
+            head = slot;
+        } else {
+            next[tail] = slot;
+        }
+        tail = slot;
+    }
+
+    /**
+     * @param slot a slot in the list
+     */
+    private void unlink(int slot) {
+        if (prev[slot] == NONE) {
+            head = next[slot];
+        } else {
+            next[prev[slot]] = next[slot];
+        }
+        if (next[slot] == NONE) {
+            tail = prev[slot];
+        } else {
+            prev[next[slot]] = prev[slot];
+        }
+    }
+
+    /**
+     * @param slot a slot in the list, which becomes the most recently used
+     */
+    private void moveToTail(int slot) {
+        if (slot != tail) {
+            unlink(slot);
+            link(slot);
+        }
+    }
+
+    /**
+     * Appends a slot to the expiry order, as the last to go stale.
+     *
+     * @param slot a slot that is not in the expiry order
+     */
+    private void linkNewest(int slot) {
+        older[slot] = newest;
+        newer[slot] = NONE;
+        if (newest == NONE) {
+            oldest = slot;
+        } else {
+            newer[newest] = slot;
+        }
+        newest = slot;
+    }
+
+    /**
+     * @param slot a slot in the expiry order
+     */
+    private void unlinkExpiry(int slot) {
+        if (older[slot] == NONE) {
+            oldest = newer[slot];
+        } else {
+            newer[older[slot]] = newer[slot];
+        }
+        if (newer[slot] == NONE) {
+            newest = older[slot];
+        } else {
+            older[newer[slot]] = older[slot];
+        }
+    }
+
+    /**
+     * @param slot a slot in the expiry order whose expiry time was just renewed
+     */
+    private void moveToNewest(int slot) {
+        if (slot != newest) {
+            unlinkExpiry(slot);
+            linkNewest(slot);
+        }
+    }
+
+    /**
+     * @param id the identifier to look up
+     * @return the position in table of the slot holding {@code id}, or NONE if there is none
+     */
+    private int find(String id) {
+        int mask = table.length - 1;
+        for (int position = hash(id) & mask; table[position] != NONE;
+             position = (position + 1) & mask) {
+            if (ids[table[position]].equals(id)) {
+                return position;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @param slot an occupied slot whose id is not in table yet
+     */
+    private void insertIntoTable(int slot) {
+        int mask = table.length - 1;
+        int position = hash(ids[slot]) & mask;
+        while (table[position] != NONE) {
+            position = (position + 1) & mask;
+        }
+        table[position] = slot;
+    }
+
+    /**
+     * Empties a position in table, shifting later entries of the same probe run back
+     * into the gap so that lookups never need to skip over deleted positions.
+     *
+     * @param position a position in table holding a slot
+     */
+    private void removeFromTable(int position) {
+        int mask = table.length - 1;
+        int gap = position;
+        for (int later = (gap + 1) & mask; table[later] != NONE; later = (later + 1) & mask) {
+            int home = hash(ids[table[later]]) & mask;
+            // The entry may fill the gap only if the gap is between its home and where it is.
+            if (((later - home) & mask) >= ((later - gap) & mask)) {
+                table[gap] = table[later];
+                gap = later;
+            }
+        }
+        table[gap] = NONE;
+    }
+
+    /**
+     * @param id a non-null identifier
+     * @return a hash of {@code id} whose low bits depend on all the bits of its hashCode
+     */
+    private static int hash(String id) {
+        int hash = id.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,62 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class CustomPolicy<T extends Bufferable> implements SegmentPolicy<T> {
+
+    private final EvictionPolicy policy;
+    private final Map<String, BufferObject<T>> inserted = new HashMap<>();
+
+    /* Representation Invariant */
+    // policy is non-null.
+    // inserted maps the id of every bufferObject inserted and not yet removed to it.
+
+    /* Abstraction Function */
+    // a CustomPolicy evicts whichever object policy names, passing it only the ids
+    // and weights of the bufferObjects the segment reports.
+
+    /* Thread Safety Argument */
+    // not thread-safe; see SegmentPolicy.
+
+    /**
+     * Adapts a policy written against ids to a segment.
+     *
+     * @param policy a new, empty policy used only by this segment, non-null
+     */
+    CustomPolicy(EvictionPolicy policy) {
+        this.policy = policy;
+    }
+
+    public void recordInsert(BufferObject<T> bufferObject) {
+        inserted.put(bufferObject.id(), bufferObject);
+        policy.recordInsert(bufferObject.id(), bufferObject.weight());
+    }
+
+    public void recordAccess(BufferObject<T> bufferObject) {
+        policy.recordAccess(bufferObject.id());
+    }
+
+    public void recordMiss(String id) {
+        policy.recordMiss(id);
+    }
+
+    public void recordRemoval(BufferObject<T> bufferObject) {
+        inserted.remove(bufferObject.id());
+        policy.recordRemoval(bufferObject.id());
+    }
+
+    /**
+     * @return the bufferObject with the id the policy chose
+     * @throws IllegalStateException if the policy chose an id that is not in the segment
+     */
+    public BufferObject<T> victim() {
+        String id = policy.victim();
+        BufferObject<T> victim = id == null ? null : inserted.get(id);
+        if (victim == null) {
+            throw new IllegalStateException("The eviction policy chose " + id
+                + ", which is not in the buffer");
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,457 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+class DiskTier<T extends Bufferable> {
+
+    /* every record starts with the id length, the value length and the expiry time */
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+
+    /* a record with this value length marks its id as removed */
+    private static final int TOMBSTONE = -1;
+
+    /* the file is not compacted until it is at least this many bytes */
+    private static final long MIN_COMPACT_BYTES = 1 << 20;
+
+    /* the default bound on the bytes of the records a disk tier keeps, 256 MB */
+    static final long DEFAULT_MAXIMUM_BYTES = 256L << 20;
+
+    private final Path file;
+    private final Serializer<T> serializer;
+    private final Ticker ticker;
+    private final long maximumBytes;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final ArrayDeque<Location> byAge = new ArrayDeque<>();
+    private final PriorityQueue<Location> byExpiry =
+        new PriorityQueue<>(Comparator.comparingLong((Location location) -> location.expiresAt));
+    private RandomAccessFile data;
+    private long liveBytes;
+
+    /* Representation Invariant */
+    // data is open on file, and file is a sequence of whole records, each
+    // HEADER_BYTES followed by the UTF-8 id and, unless it is a tombstone, the value.
+    // every Location in index points at the value of the last record in file for its id,
+    // and that record is not a tombstone.
+    // an id whose last record is not a tombstone is missing from index only if that
+    // record has expired.
+    // byAge holds a Location for every record in file that is not a tombstone, in file
+    // order, and byExpiry holds the same Locations; either may also hold Locations that
+    // index no longer points at.
+    // liveBytes is the total size of the records index points at, and is at most
+    // maximumBytes once store() returns.
+
+    /* Abstraction Function */
+    // a DiskTier is the set of serialized objects, each with the wall-clock time at which it
+    // goes stale, given by the records in index whose expiry time has not passed.
+    // Records that index does not point at are garbage, which compact() drops once it makes
+    // up more than half of the file.
+    // Expired records are dropped from index by expire(), which BufferMaintenance runs
+    // through FSFTBuffer.cleanUp() about once a second, and by store().
+    // When the unexpired records add up to more than maximumBytes, the oldest written are
+    // removed, so the file stays within about twice maximumBytes once it has been compacted.
+    // Since records only hold wall-clock expiry times, the set survives a restart:
+    // opening the file again rebuilds index by scanning it from the start.
+
+    /* Thread Safety Argument */
+    // Every method that reads or writes data, or changes index, byAge, byExpiry or
+    // liveBytes, holds the lock on the DiskTier itself, so file operations never interleave.
+    // index is a ConcurrentHashMap so that remove() can skip taking the lock
+    // for the common case of an id that is not on disk.
+    // Objects are serialized in store() before the lock is taken.
+
+    /**
+     * Opens, or creates, the file backing a disk tier, keeping the unexpired
+     * objects a previous run left in it.
+     *
+     * If those objects take more than {@code maximumBytes}, the oldest are removed.
+     *
+     * @param file         the file holding the tier, whose directory must exist
+     * @param serializer   converts objects to and from the bytes stored on disk, non-null
+     * @param ticker       the source of the current time, used to drop expired objects,
+     *                     non-null
+     * @param maximumBytes the total size of the records the tier keeps at most,
+     *                     {@code maximumBytes} > 0
+     * @throws UncheckedIOException if the file cannot be opened or read
+     */
+    DiskTier(Path file, Serializer<T> serializer, Ticker ticker, long maximumBytes) {
+        this.file = file;
+        this.serializer = serializer;
+        this.ticker = ticker;
+        this.maximumBytes = maximumBytes;
+        try {
+            this.data = new RandomAccessFile(file.toFile(), "rw");
+            rebuildIndex();
+            synchronized (this) {
+                dropExpired(ticker.currentTimeMillis());
+                removeOldest();
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Could not open " + file, ioe);
+        }
+    }
+
+    /**
+     * An object leaving memory, with the time it goes stale.
+     *
+     * @param <T> the type of object held by the buffer
+     */
+    static class Entry<T> {
+        final String id;
+        final long expiresAt;
+        final T item;
+        byte[] bytes;
+
+        /**
+         * @param id        the id of the object
+         * @param expiresAt the wall-clock time, in milliseconds, at which the object goes stale
+         * @param item      the object, or null if {@code bytes} is given
+         * @param bytes     the serialized object, or null if {@code item} is given
+         */
+        Entry(String id, long expiresAt, T item, byte[] bytes) {
+            this.id = id;
+            this.expiresAt = expiresAt;
+            this.item = item;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Writes objects evicted from memory to disk, replacing older copies with the same ids.
+     * Objects that cannot be written, or that alone are larger than the tier's byte budget,
+     * are dropped, as if they had never been evicted to disk. If the tier is then over its
+     * budget, expired objects are dropped first, then the oldest written.
+     *
+     * @param entries the evicted objects, in eviction order
+     */
+    void store(List<Entry<T>> entries) {
+        for (Entry<T> entry : entries) {
+            if (entry.bytes == null) {
+                entry.bytes = serializer.serialize(entry.item);
+            }
+        }
+        synchronized (this) {
+            try {
+                for (Entry<T> entry : entries) {
+                    byte[] idBytes = entry.id.getBytes(StandardCharsets.UTF_8);
+                    if (HEADER_BYTES + idBytes.length + entry.bytes.length > maximumBytes) {
+                        removeLocked(entry.id);
+                    } else {
+                        append(entry.id, entry.bytes, entry.expiresAt);
+                    }
+                }
+                if (liveBytes > maximumBytes) {
+                    dropExpired(ticker.currentTimeMillis());
+                    removeOldest();
+                }
+                compactIfMostlyGarbage(ticker.currentTimeMillis());
+            } catch (IOException ioe) {
+                System.out.println("Could not write to " + file);
+            }
+        }
+    }
+
+    /**
+     * Drops the expired objects from the index, and rewrites the file if most of it
+     * is then garbage, so that objects that are never read again do not keep the file
+     * and the index growing.
+     */
+    void expire() {
+        synchronized (this) {
+            try {
+                compactIfMostlyGarbage(ticker.currentTimeMillis());
+            } catch (IOException ioe) {
+                System.out.println("Could not write to " + file);
+            }
+        }
+    }
+
+    /**
+     * Takes an object out of the disk tier, so that it can move back into memory.
+     *
+     * @param id          the identifier of the object
+     * @param currentTime the current wall-clock time in milliseconds
+     * @return the object's bytes and expiry time, or null if there is no unexpired
+     * object with {@code id} on disk
+     */
+    synchronized Entry<T> load(String id, long currentTime) {
+        Location location = index.get(id);
+        if (location == null) {
+            return null;
+        }
+        if (location.expiresAt <= currentTime) {
+            // The record cannot outlive its expiry time, so it needs no tombstone.
+            index(id, null);
+            return null;
+        }
+        try {
+            byte[] bytes = new byte[location.valueLength];
+            data.seek(location.valueOffset);
+            data.readFully(bytes);
+            removeLocked(id);
+            return new Entry<>(id, location.expiresAt, null, bytes);
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Drops the object with the given id from disk, if there is one, so that an
+     * older copy cannot outlive a newer one put in memory.
+     *
+     * @param id the identifier of the object
+     */
+    void remove(String id) {
+        if (!index.containsKey(id)) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                removeLocked(id);
+            } catch (IOException ioe) {
+                System.out.println("Could not write to " + file);
+            }
+        }
+    }
+
+    /**
+     * Marks an id as removed on disk.
+     * Must be called while holding the tier's lock.
+     *
+     * @param id the identifier of the object
+     * @throws IOException if the tombstone cannot be written
+     */
+    private void removeLocked(String id) throws IOException {
+        if (index.containsKey(id)) {
+            append(id, null, 0);
+        }
+    }
+
+    /**
+     * Appends a record to the end of the file and points index at it.
+     * Must be called while holding the tier's lock.
+     *
+     * @param id        the identifier of the object
+     * @param bytes     the serialized object, or null to write a tombstone
+     * @param expiresAt the wall-clock time, in milliseconds, at which the object goes stale
+     * @throws IOException if the record cannot be written
+     */
+    private void append(String id, byte[] bytes, long expiresAt) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] record = record(idBytes, bytes, expiresAt);
+        long offset = data.length();
+        data.seek(offset);
+        data.write(record);
+        long valueOffset = offset + HEADER_BYTES + idBytes.length;
+        index(id, bytes == null ? null
+            : new Location(id, valueOffset, bytes.length, expiresAt, record.length));
+    }
+
+    /**
+     * Encodes a record, so that it can be written with a single call.
+     *
+     * @param idBytes   the UTF-8 id of the object
+     * @param bytes     the serialized object, or null for a tombstone
+     * @param expiresAt the wall-clock time, in milliseconds, at which the object goes stale
+     * @return the whole record
+     */
+    private static byte[] record(byte[] idBytes, byte[] bytes, long expiresAt) {
+        int valueLength = bytes == null ? 0 : bytes.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + idBytes.length + valueLength)
+            .putInt(idBytes.length)
+            .putInt(bytes == null ? TOMBSTONE : bytes.length)
+            .putLong(expiresAt)
+            .put(idBytes);
+        if (bytes != null) {
+            record.put(bytes);
+        }
+        return record.array();
+    }
+
+    /**
+     * Points index at a new record for an id, keeping liveBytes up to date.
+     * Must be called while holding the tier's lock.
+     *
+     * @param id       the identifier of the object
+     * @param location where the object's value now is, or null if it was removed
+     */
+    private void index(String id, Location location) {
+        Location previous = location == null ? index.remove(id) : index.put(id, location);
+        if (previous != null) {
+            liveBytes -= previous.recordBytes;
+        }
+        if (location != null) {
+            liveBytes += location.recordBytes;
+            byAge.addLast(location);
+            byExpiry.add(location);
+        }
+    }
+
+    /**
+     * @param location a Location taken from byAge or byExpiry
+     * @return true if index still points at {@code location}
+     */
+    private boolean isLive(Location location) {
+        return index.get(location.id) == location;
+    }
+
+    /**
+     * Drops the objects that have expired from index, without writing anything, since
+     * an expired record is skipped when the file is read again anyway.
+     * Must be called while holding the tier's lock.
+     *
+     * @param currentTime the current wall-clock time in milliseconds
+     */
+    private void dropExpired(long currentTime) {
+        while (!byExpiry.isEmpty() && byExpiry.peek().expiresAt <= currentTime) {
+            Location location = byExpiry.poll();
+            if (isLive(location)) {
+                index(location.id, null);
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest written objects until the tier is within its byte budget.
+     * Must be called while holding the tier's lock.
+     *
+     * @throws IOException if a tombstone cannot be written
+     */
+    private void removeOldest() throws IOException {
+        while (liveBytes > maximumBytes && !byAge.isEmpty()) {
+            Location oldest = byAge.pollFirst();
+            if (isLive(oldest)) {
+                removeLocked(oldest.id);
+            }
+        }
+    }
+
+    /**
+     * Drops the expired objects, then compacts the file if it is large and more than
+     * half of it is garbage.
+     * Must be called while holding the tier's lock.
+     *
+     * @param currentTime the current wall-clock time in milliseconds
+     * @throws IOException if the file cannot be rewritten
+     */
+    private void compactIfMostlyGarbage(long currentTime) throws IOException {
+        dropExpired(currentTime);
+        if (data.length() > MIN_COMPACT_BYTES && data.length() > 2 * liveBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Reads every record in the file into index, cutting off a partly written record
+     * left at the end by a crash.
+     * Must be called while holding the tier's lock, or from the constructor.
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private void rebuildIndex() throws IOException {
+        index.clear();
+        byAge.clear();
+        byExpiry.clear();
+        liveBytes = 0;
+        long length = data.length();
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(file)))) {
+            while (offset + HEADER_BYTES <= length) {
+                int idLength = in.readInt();
+                int valueLength = in.readInt();
+                long expiresAt = in.readLong();
+                long valueOffset = offset + HEADER_BYTES + idLength;
+                long end = valueOffset + Math.max(valueLength, 0);
+                if (idLength < 0 || valueLength < TOMBSTONE || end > length) {
+                    break;
+                }
+                byte[] idBytes = new byte[idLength];
+                in.readFully(idBytes);
+                // Value bytes are only read when the object is loaded.
+                for (int skip = (int) (end - valueOffset); skip > 0; ) {
+                    int skipped = in.skipBytes(skip);
+                    if (skipped == 0) {
+                        throw new EOFException();
+                    }
+                    skip -= skipped;
+                }
+                String id = new String(idBytes, StandardCharsets.UTF_8);
+                index(id, valueLength == TOMBSTONE ? null
+                    : new Location(id, valueOffset, valueLength, expiresAt, end - offset));
+                offset = end;
+            }
+        } catch (EOFException partialRecord) {
+            // Handled below, like any other partial record.
+        }
+        data.setLength(offset);
+    }
+
+    /**
+     * Rewrites the file with only the objects index points at, in the order they were
+     * written, so that the oldest are still the first removed for space.
+     * Must be called while holding the tier's lock, right after dropExpired.
+     *
+     * @throws IOException if the file cannot be rewritten
+     */
+    private void compact() throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(compacted))) {
+            for (Location location : byAge) {
+                if (!isLive(location)) {
+                    continue;
+                }
+                byte[] idBytes = location.id.getBytes(StandardCharsets.UTF_8);
+                byte[] bytes = new byte[location.valueLength];
+                data.seek(location.valueOffset);
+                data.readFully(bytes);
+                out.write(record(idBytes, bytes, location.expiresAt));
+            }
+        }
+        data.close();
+        try {
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            data = new RandomAccessFile(file.toFile(), "rw");
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Where the value of a record for an id is in the file.
+     */
+    private static class Location {
+        final String id;
+        final long valueOffset;
+        final int valueLength;
+        final long expiresAt;
+        final long recordBytes;
+
+        Location(String id, long valueOffset, int valueLength, long expiresAt,
+                 long recordBytes) {
+            this.id = id;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+            this.expiresAt = expiresAt;
+            this.recordBytes = recordBytes;
+        }
+    }
+}
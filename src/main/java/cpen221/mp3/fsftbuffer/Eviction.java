@@ -0,0 +1,37 @@
+package cpen221.mp3.fsftbuffer;
+
+/**
+ * The eviction policies that come with FSFTBuffer.
+ */
+public enum Eviction {
+    /* remove the least recently used object */
+    LRU,
+    /* segmented LRU: objects used more than once are protected from objects used once */
+    SLRU,
+    /* window TinyLFU: a small LRU window in front of a frequency-filtered segmented LRU */
+    W_TINY_LFU,
+    /* adaptive replacement cache: splits the budget between objects used once and objects
+       used again, moving the split toward whichever side recently evicted objects come back to */
+    ARC;
+
+    /**
+     * Creates a fresh instance of this policy for one segment.
+     *
+     * @param maximumWeight the weight budget of the segment, which is its capacity
+     *                      when every object weighs one; {@code maximumWeight} >= 0
+     * @param <T>           the type of object held by the buffer
+     * @return a new, empty policy
+     */
+    <T extends Bufferable> SegmentPolicy<T> newPolicy(long maximumWeight) {
+        switch (this) {
+            case SLRU:
+                return new SlruPolicy<>(maximumWeight);
+            case W_TINY_LFU:
+                return new WTinyLfuPolicy<>(maximumWeight);
+            case ARC:
+                return new ArcPolicy<>(maximumWeight);
+            default:
+                return new LruPolicy<>();
+        }
+    }
+}
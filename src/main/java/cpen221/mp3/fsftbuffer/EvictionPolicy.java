@@ -0,0 +1,57 @@
+package cpen221.mp3.fsftbuffer;
+
+/**
+ * A custom rule for which object a segment of an FSFTBuffer removes when it is over its
+ * weight budget, given to FSFTBuffer.Builder.withEvictionPolicy.
+ * The policy only sees ids and weights: a segment tells it about every object that is
+ * added, used or removed, and asks it for the id of a victim after adding an object that
+ * puts the segment over its budget.
+ * Each segment has its own policy instance, and calls it only while holding its lock,
+ * so implementations need not be thread-safe, but should be fast.
+ * The built-in policies in Eviction track the same events without a map from ids,
+ * so they are cheaper than an equivalent custom policy.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Records that an object was added to the segment.
+     * An object replaced through update by one of a different weight is recorded as
+     * removed and then inserted again.
+     *
+     * @param id     the id of the newly added object, not currently in the segment
+     * @param weight the weight of the object, {@code weight} >= 0
+     */
+    void recordInsert(String id, int weight);
+
+    /**
+     * Records that an object in the segment was used by a get, touch or update.
+     *
+     * @param id the id of an object previously passed to recordInsert and not removed
+     */
+    void recordAccess(String id);
+
+    /**
+     * Records that an object was looked up but is not in the segment.
+     * Frequency-aware policies use this to learn about objects before they are added.
+     *
+     * @param id the identifier that was looked up
+     */
+    default void recordMiss(String id) {
+    }
+
+    /**
+     * Records that an object left the segment, whether it was chosen by victim(),
+     * went stale or was replaced.
+     *
+     * @param id the id of an object previously passed to recordInsert and not removed
+     */
+    void recordRemoval(String id);
+
+    /**
+     * Chooses the object to remove from a segment that is over its budget.
+     * This does not remove it; the segment calls recordRemoval once it has.
+     *
+     * @return the id of an object that has been inserted and not removed
+     */
+    String victim();
+}
@@ -0,0 +1,22 @@
+package cpen221.mp3.fsftbuffer;
+
+/**
+ * Computes how long each object stays fresh, for buffers whose objects should not
+ * all share one timeout, such as pages that change every few minutes next to pages
+ * that hardly ever change.
+ *
+ * @param <T> the type of object held by the buffer
+ */
+@FunctionalInterface
+public interface Expiry<T extends Bufferable> {
+
+    /**
+     * Called when an object is put or updated, outside any lock of the buffer, so it
+     * may look at the object's content. Touching an object restarts the same timeout.
+     *
+     * @param t a non-null object
+     * @return the duration, in seconds, {@code t} should be in the buffer before it
+     * times out, {@code >= 0}
+     */
+    int timeout(T t);
+}
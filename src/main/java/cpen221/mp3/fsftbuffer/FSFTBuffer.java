@@ -1,9 +1,21 @@
 package cpen221.mp3.fsftbuffer;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.LongFunction;
 
 public class FSFTBuffer<T extends Bufferable> {
 
@@ -13,37 +25,80 @@ public class FSFTBuffer<T extends Bufferable> {
     /* the default timeout value is 3600s */
     public static final int DTIMEOUT = 3600;
 
-    private final List<BufferObject<T>> buffer = new ArrayList<>();
-    private final int capacity;
+    /* the default number of independently locked segments */
+    public static final int DSEGMENTS = 1;
+
+    private final BufferSegment<T>[] segments;
+    private final DiskTier<T> diskTier;
+    private final SnapshotFile<T> snapshotFile;
+    private final Serializer<T> serializer;
+    private final ConcurrentHashMap<String, CompletableFuture<T>> loading =
+        new ConcurrentHashMap<>();
+    private final Function<? super String, ? extends T> refreshLoader;
+    private final Executor refreshExecutor;
+    private final Ticker ticker;
+    private final StatsCounter stats = new StatsCounter();
+    private final long maximumWeight;
     private final int timeout;
+    private final boolean negativeCaching;
 
     /* Representation Invariant */
-    // buffer size equals the capacity after creation.
-    // capacity is an integer greater than or equal to zero.
+    // segments is non-null, non-empty and contains no null segments.
+    // segments.length is at most max(maximumWeight, 1).
+    // the weight budgets of the segments add up to maximumWeight.
+    // maximumWeight is greater than or equal to zero.
     // timeout is an integer greater than or equal to zero.
+    // if diskTier is non-null, so is serializer, and diskTier uses serializer.
+    // if snapshotFile is non-null, so is serializer, and snapshotFile uses serializer.
+    // loading maps an id to the result of the one loader running for it, if any.
+    // refreshLoader and refreshExecutor are either both null or both non-null.
+    // negativeCaching is true exactly when every segment remembers absent ids.
 
     /* Abstraction Function */
-    // the FSFTBuffer is a list containing Bufferobjects with an immutable capacity
-    // and timeout once created
+    // the FSFTBuffer is the union of the objects held by its segments, with an immutable
+    // weight budget and timeout once created.
+    // A buffer bounded by number of objects weighs every object as one, so its
+    // maximumWeight is its capacity.
+    // An object with a given id can only ever be held by segments[segmentIndex(id)].
+    // Usage and staleness are tracked per segment, so when there is more than one segment
+    // the object removed to make space is the one its segment's eviction policy picks
+    // among the objects of that segment.
+    // With a diskTier, the buffer also holds the unexpired objects on disk: objects removed
+    // for space move there, keeping the time they go stale, and move back on a get,
+    // unless the tier's byte budget has pushed them out first.
+    // An object in memory hides any older copy of it on disk.
+    // With a snapshotFile, the buffer starts with the objects in the last snapshot
+    // written there, each with the time it had left and in the order they were used.
+    // With a refreshLoader, objects read late in their timeout are reloaded in the
+    // background, and stale objects are still returned for a grace period while they are.
+    // With negativeCaching, the buffer also holds negative entries: ids that
+    // get(id, loader) recently found no object for, which it answers with null
+    // without running the loader again.
+    // With a miss filter, each segment keeps a counting Bloom filter of the ids it holds,
+    // so that most gets for ids no segment holds return without taking a lock.
+    // With a removal listener, every object that leaves memory other than for the disk
+    // tier is reported to it, with the cause, on its executor.
 
     /* Thread Safety Argument */
-    // put(), get(), update() and touch() are all methods that must access
-    // elements in buffer (the local list)
-    // Every BufferObject in buffer is used as a lock throughout this datatype
-    // In addition, every method in BufferObject is synchronized on the object itself:
-    // for every BufferObject, only
-    // one of its methods can execute at a given time.
-    // Each of the four previously mentioned methods iterates over buffer,
-    // and must acquire the BufferObject at their current position to proceed further.
-    // Therefore, if multiple threads attempt to iterate over buffer concurrently,
-    // they proceed through buffer one after the other, as each thread can only proceed
-    // once the lock in the position it wants to go to is free.
-    // Since the put() method must keep track of access time if buffer is full,
-    // in order to replace an object it deems is less recently used, it must reacquire the
-    // lock for that object.
-    // After acquiring that lock, put() will only replace that BufferObject if
-    // its last access time matches what put had recorded.
-    // If there is a discrepancy, put() starts fresh.
+    // segments is final and never modified after construction, so it can be read
+    // by any number of threads without locking, including the maintenance thread
+    // that calls cleanUp() once the constructor has registered the buffer.
+    // Every operation on an object is delegated to the single segment its id hashes to,
+    // and each segment guards its own representation with its own lock
+    // (see BufferSegment).
+    // Operations on ids in different segments therefore never contend with each other,
+    // and operations on the same id are serialized by that segment's lock.
+    // diskTier is shared by all segments and is thread-safe on its own (see DiskTier);
+    // it is only used while no segment lock is held.
+    // Loaders in get(id, loader) are claimed by putIfAbsent on the concurrent map loading,
+    // so at most one runs per id at a time; it runs without any lock held, and other
+    // callers for that id wait on its future rather than on a lock.
+    // Background refreshes claim the id in loading the same way, so a refresh and a
+    // get(id, loader) never load the same id at the same time.
+    // stats is shared by all segments and is updated without locking (see StatsCounter).
+    // snapshot() copies each segment under that segment's lock in turn, so the snapshot
+    // is consistent within each segment but not across them; the file is written
+    // with no lock held (see SnapshotFile).
 
     /**
      * Create a buffer with a fixed capacity and a timeout value.
@@ -55,93 +110,229 @@ public class FSFTBuffer<T extends Bufferable> {
      *                 be in the buffer before it times out
      */
     public FSFTBuffer(int capacity, int timeout) {
-        this.timeout = Math.max(timeout, 0);
-        this.capacity = capacity;
+        this(new Builder<T>().withCapacity(capacity).withTimeout(timeout));
+    }
+
+    /**
+     * Create a buffer with a fixed capacity and a timeout value, split into
+     * independently locked segments so that concurrent operations on different
+     * ids do not contend.
+     * With more than one segment, least recently used replacement is done
+     * within the segment the new object hashes to.
+     *
+     * @param capacity     the number of objects the buffer can hold
+     * @param timeout      the duration, in seconds, an object should
+     *                     be in the buffer before it times out
+     * @param segmentCount the number of segments, {@code segmentCount} > 0;
+     *                     it is lowered to {@code capacity} if it is larger
+     */
+    public FSFTBuffer(int capacity, int timeout, int segmentCount) {
+        this(new Builder<T>().withCapacity(capacity).withTimeout(timeout)
+            .withSegments(segmentCount));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private FSFTBuffer(Builder<T> builder) {
+        this.timeout = Math.max(builder.timeout, 0);
+        this.maximumWeight = Math.max(builder.maximumWeight, 0);
+        this.serializer = builder.serializer;
+        this.ticker = builder.ticker;
+        this.diskTier = builder.diskFile == null
+            ? null : new DiskTier<>(builder.diskFile, builder.serializer, ticker,
+                builder.diskBytes);
+        this.snapshotFile = builder.snapshotFile == null
+            ? null : new SnapshotFile<>(builder.snapshotFile, builder.serializer);
+        Serializer<T> offHeapSerializer = builder.offHeap ? builder.serializer : null;
+        this.refreshLoader = builder.refreshLoader;
+        this.refreshExecutor = builder.refreshExecutor;
+        int defaultTimeout = this.timeout;
+        Expiry<? super T> expiry = builder.expiry == null ? t -> defaultTimeout : builder.expiry;
+        long graceMillis = builder.gracePeriod * 1000L;
+        this.negativeCaching = builder.negativeTimeout > 0;
 
-        // Satisfy the RI by filling the list with bufferObjects containing null references
-        for (int item = 0; item < capacity; item++) {
-            buffer.add(new BufferObject<>(timeout));
+        int count = (int) Math.min(builder.segmentCount, Math.max(this.maximumWeight, 1));
+        this.segments = new BufferSegment[count];
+        for (int segment = 0; segment < count; segment++) {
+            // Spread the remainder so that the segment budgets add up to maximumWeight.
+            long segmentWeight = this.maximumWeight / count
+                + (segment < this.maximumWeight % count ? 1 : 0);
+            int segmentAbsent = builder.maximumAbsent / count
+                + (segment < builder.maximumAbsent % count ? 1 : 0);
+            MissFilter filter = builder.filterExpectedSize == 0 ? null
+                : new MissFilter(builder.filterExpectedSize / count + 1 + segmentAbsent);
+            AbsentIds absent = !negativeCaching ? null
+                : new AbsentIds(builder.negativeTimeout * 1000L, segmentAbsent, filter);
+            segments[segment] = new BufferSegment<>(segmentWeight, builder.weigher,
+                expiry, builder.policyFactory.apply(segmentWeight), offHeapSerializer,
+                diskTier, refreshLoader == null ? null : this::refresh, builder.refreshAfter,
+                graceMillis, absent, filter, ticker, stats, builder.removalListener,
+                builder.removalExecutor);
+        }
+        if (snapshotFile != null) {
+            snapshotFile.read(ticker.currentTimeMillis(), entry -> {
+                T item = serializer.deserialize(entry.bytes);
+                segmentFor(item.id()).put(item, entry.bytes, entry.expiresAt);
+            });
         }
+        BufferMaintenance.register(this);
     }
 
     /**
      * Create a buffer with default capacity and timeout values.
      */
     public FSFTBuffer() {
-        this.timeout = DTIMEOUT;
-        this.capacity = DSIZE;
-
-        // Satisfy the RI by filling the list with bufferObjects containing null references
-        for (int item = 0; item < capacity; item++) {
-            buffer.add(new BufferObject<>(timeout));
-        }
+        this(DSIZE, DTIMEOUT);
     }
 
     /**
      * Add a value to the buffer.
      * If the buffer is full then remove the least recently accessed
-     * object to make room for the new object.
+     * object to make room for the new object, or the object chosen by
+     * the eviction policy the buffer was built with.
+     * A buffer bounded by weight removes objects until the new object fits,
+     * and refuses objects heavier than the budget of the segment they hash to.
      * <p>
      * Returns a true if put operation is successful, else false.
      */
     public boolean put(T t) {
-        boolean put = false;
-        long leastRecentAccess;
-        long lastAccess;
-        BufferObject<T> leastRecentObject;
-
-        while (!put) {
-            synchronized (buffer.get(0)) {
-                leastRecentAccess = buffer.get(0).timeLastAccessed();
-                leastRecentObject = buffer.get(0);
-            }
-            for (int item = 0; item < capacity; item++) {
-                synchronized (buffer.get(item)) {
-                    if (buffer.get(item).isEmpty() | buffer.get(item).isStale()) {
-                        buffer.get(item).fill(t);
-                        put = true;
-                        break;
-                    }
-                    if (Objects.equals(buffer.get(item).id(), t.id())) {
-                        put = true;
-                        break;
-                    }
-                    lastAccess = buffer.get(item).timeLastAccessed();
+        if (diskTier != null) {
+            diskTier.remove(t.id());
+        }
+        return segmentFor(t.id()).put(t);
+    }
 
-                    if (lastAccess < leastRecentAccess) {
-                        leastRecentAccess = lastAccess;
-                        leastRecentObject = buffer.get(item);
-                    }
+    /**
+     * A buffer built with withRefreshAhead may return an object that has gone stale
+     * within its grace period, while a fresh copy is being loaded.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object that matches the identifier from the
+     * buffer
+     */
+    public T get(String id) throws NoSuchElementException {
+        T item = getIfPresent(id);
+        if (item == null) {
+            throw new NoSuchElementException("Id not found in the buffer!");
+        }
+        return item;
+    }
+
+    /**
+     * Returns the object with the given id if it is in memory and not stale, without
+     * counting a hit or a miss, marking it as used, or moving it back from the disk tier,
+     * so that looking does not change the stats or which object is removed next.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object that matches the identifier, or null if there is none in memory
+     */
+    public T peek(String id) {
+        return segmentFor(id).peek(id);
+    }
+
+    /**
+     * Returns the object with the given id, loading and adding it if it is not in the buffer.
+     * If several threads miss on the same id at once, only one of them runs
+     * {@code loader}, and the others wait for and share its result.
+     *
+     * In a buffer built with withNegativeCaching, a null from {@code loader} is
+     * remembered, and later calls for {@code id} return null without running a loader
+     * until the negative entry times out or an object with {@code id} is put.
+     *
+     * @param id     the identifier of the object to be retrieved
+     * @param loader computes the object for {@code id} when it is not in the buffer,
+     *               or returns null if there is none;
+     *               any exception it throws is rethrown to every caller waiting on it
+     * @return the object that matches the identifier, or null if {@code loader}
+     * returned null, in which case nothing is added
+     */
+    public T get(String id, Function<? super String, ? extends T> loader) {
+        T item = lookup(id);
+        if (item != null || negativeCaching && segmentFor(id).isAbsent(id)) {
+            stats.recordHit();
+            return item;
+        }
+        stats.recordMiss();
+
+        CompletableFuture<T> load = new CompletableFuture<>();
+        CompletableFuture<T> running = loading.putIfAbsent(id, load);
+        if (running != null) {
+            return join(running);
+        }
+        try {
+            // Another loader may have added the object just before this one was claimed.
+            item = lookup(id);
+            if (item == null) {
+                item = load(loader, id);
+                if (item != null) {
+                    put(item);
+                } else if (negativeCaching) {
+                    segmentFor(id).markAbsent(id);
                 }
             }
-            if (put) {
-                break;
+            load.complete(item);
+            return item;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(id, load);
+        }
+    }
+
+    /**
+     * Add several values to the buffer, as if by calling put on each of them in order,
+     * but taking the lock of each segment only once.
+     *
+     * @param objects the objects to add
+     * @return true if every object was in the buffer right after it was added, which may
+     * not hold for all of them at the end if the batch is larger than the buffer
+     */
+    public boolean putAll(Collection<? extends T> objects) {
+        if (diskTier != null) {
+            for (T t : objects) {
+                diskTier.remove(t.id());
             }
-            synchronized (buffer.get(buffer.indexOf(leastRecentObject))) {
-                if (buffer.get(buffer.indexOf(leastRecentObject)).timeLastAccessed() ==
-                    leastRecentAccess) {
-                    buffer.get(buffer.indexOf(leastRecentObject)).fill(t);
-                    put = true;
-                }
+        }
+        boolean addedAll = true;
+        List<List<T>> groups = bySegment(objects, Bufferable::id);
+        for (int segment = 0; segment < segments.length; segment++) {
+            if (!groups.get(segment).isEmpty()) {
+                addedAll &= segments[segment].putAll(groups.get(segment));
             }
         }
-        return put;
+        return addedAll;
     }
 
     /**
-     * @param id the identifier of the object to be retrieved
-     * @return the object that matches the identifier from the
-     * buffer
+     * Retrieve several objects, taking the lock of each segment only once.
+     * Unlike get, ids that are not in the buffer are left out of the result
+     * rather than reported with an exception.
+     *
+     * @param ids the identifiers of the objects to be retrieved
+     * @return a new map from each id in {@code ids} that is in the buffer to its object
      */
-    public T get(String id) throws NoSuchElementException {
-        for (int item = 0; item < capacity; item++) {
-            synchronized (buffer.get(item)) {
-                if (Objects.equals(buffer.get(item).id(), id) && !buffer.get(item).isStale()) {
-                    return buffer.get(item).getItem();
+    public Map<String, T> getAll(Collection<String> ids) {
+        Set<String> distinct = new LinkedHashSet<>(ids);
+        Map<String, T> found = new HashMap<>();
+        List<List<String>> groups = bySegment(distinct, id -> id);
+        for (int segment = 0; segment < segments.length; segment++) {
+            if (!groups.get(segment).isEmpty()) {
+                segments[segment].getAll(groups.get(segment), found);
+            }
+        }
+        if (diskTier != null && found.size() < distinct.size()) {
+            for (String id : distinct) {
+                if (!found.containsKey(id)) {
+                    T item = loadFromDisk(segmentFor(id), id);
+                    if (item != null) {
+                        found.put(id, item);
+                    }
                 }
             }
         }
-        throw new NoSuchElementException("Id not found in the buffer!");
+        stats.recordHits(found.size());
+        stats.recordMisses(distinct.size() - found.size());
+        return found;
     }
 
     /**
@@ -153,14 +344,7 @@ public class FSFTBuffer<T extends Bufferable> {
      * @return true if successful and false otherwise
      */
     public boolean touch(String id) {
-        for (int item = 0; item < capacity; item++) {
-            synchronized (buffer.get(item)) {
-                if (Objects.equals(buffer.get(item).id(), id) && !buffer.get(item).isStale()) {
-                    return buffer.get(item).refresh();
-                }
-            }
-        }
-        return false;
+        return segmentFor(id).touch(id);
     }
 
     /**
@@ -172,17 +356,573 @@ public class FSFTBuffer<T extends Bufferable> {
      * @return true if successful and false otherwise
      */
     public boolean update(T t) {
-        String id = t.id();
-        boolean returnValue = false;
-        for (int item = 0; item < capacity; item++) {
-            synchronized (buffer.get(item)) {
-                if (Objects.equals(buffer.get(item).id(), id) && !buffer.get(item).isStale()) {
-                    buffer.get(item).fill(t);
-                    returnValue = true;
-                    break;
+        return segmentFor(t.id()).update(t);
+    }
+
+    /**
+     * Removes the object with the provided id, so that the next get does not find it,
+     * along with any copy on disk and any negative entry for the id.
+     * A removal listener is told the object was removed explicitly.
+     *
+     * @param id the identifier of the object to remove
+     * @return true if an object with {@code id} that was not stale was removed from memory,
+     * false otherwise
+     */
+    public boolean invalidate(String id) {
+        boolean removed = segmentFor(id).invalidate(id);
+        if (diskTier != null) {
+            diskTier.remove(id);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns a snapshot of the buffer's counters. Counting is always on and does not
+     * take any lock, so this can be called as often as monitoring needs.
+     * Gets from get(id) and get(id, loader) count as hits or misses, with a stale object
+     * returned during a refresh grace period counting as a hit; touch and update do not.
+     * A null returned by get(id, loader) for a negative entry counts as a hit, since no
+     * loader runs for it.
+     *
+     * @return the buffer's counters since it was created
+     */
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Writes the objects in memory that are not stale to the snapshot file given to
+     * withSnapshot, replacing the previous snapshot, so that a buffer built later on
+     * that file starts with them. Objects in the disk tier are not included, since they
+     * are kept across restarts anyway.
+     * Each segment is locked in turn while its objects are copied out, which blocks
+     * operations on that segment for time proportional to its size.
+     *
+     * @return the number of objects written
+     * @throws IllegalStateException if the buffer was built without withSnapshot
+     * @throws java.io.UncheckedIOException if the snapshot cannot be written
+     */
+    public int snapshot() {
+        if (snapshotFile == null) {
+            throw new IllegalStateException("The buffer was built without a snapshot file");
+        }
+        List<DiskTier.Entry<T>> entries = new ArrayList<>();
+        for (BufferSegment<T> segment : segments) {
+            entries.addAll(segment.snapshot());
+        }
+        return snapshotFile.write(entries, ticker.currentTimeMillis());
+    }
+
+    /**
+     * Removes every object that has gone stale, so that the memory it holds can be
+     * reclaimed without waiting for a put, and drops the expired objects in the disk tier,
+     * if there is one, compacting its file once it is mostly garbage.
+     * This is called about once a second by a background thread, and may also be
+     * called directly.
+     */
+    public void cleanUp() {
+        for (BufferSegment<T> segment : segments) {
+            segment.expire();
+        }
+        if (diskTier != null) {
+            diskTier.expire();
+        }
+    }
+
+    /**
+     * Looks an object up, counting a hit or a miss.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object that matches the identifier, from memory or from the
+     * disk tier, or null if there is none
+     */
+    private T getIfPresent(String id) {
+        T item = lookup(id);
+        if (item == null) {
+            stats.recordMiss();
+        } else {
+            stats.recordHit();
+        }
+        return item;
+    }
+
+    /**
+     * Looks an object up without counting a hit or miss.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object that matches the identifier, from memory or from the
+     * disk tier, or null if there is none
+     */
+    private T lookup(String id) {
+        BufferSegment<T> segment = segmentFor(id);
+        T item = segment.get(id);
+        if (item == null && diskTier != null) {
+            item = loadFromDisk(segment, id);
+        }
+        return item;
+    }
+
+    /**
+     * Runs a loader, recording how long it took and whether it returned an object.
+     *
+     * @param loader computes the object for {@code id}
+     * @param id     the identifier of the object to load
+     * @return the loaded object, or null if {@code loader} returned null
+     */
+    private T load(Function<? super String, ? extends T> loader, String id) {
+        long start = System.nanoTime();
+        T item = null;
+        try {
+            item = loader.apply(id);
+            return item;
+        } finally {
+            long loadTime = System.nanoTime() - start;
+            if (item == null) {
+                stats.recordLoadFailure(loadTime);
+            } else {
+                stats.recordLoadSuccess(loadTime);
+            }
+        }
+    }
+
+    /**
+     * Reloads an object in the background with refreshLoader, unless it is already
+     * being loaded. If the reload fails, the current object is kept until it goes stale
+     * and its grace period ends.
+     *
+     * @param id the identifier of the object to reload
+     */
+    private void refresh(String id) {
+        CompletableFuture<T> load = new CompletableFuture<>();
+        if (loading.putIfAbsent(id, load) != null) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    T item = load(refreshLoader, id);
+                    if (item != null && !update(item)) {
+                        put(item);
+                    }
+                    load.complete(item);
+                } catch (RuntimeException | Error e) {
+                    load.completeExceptionally(e);
+                } finally {
+                    loading.remove(id, load);
                 }
+            });
+        } catch (RejectedExecutionException ree) {
+            loading.remove(id, load);
+            load.completeExceptionally(ree);
+        }
+    }
+
+    /**
+     * Waits for the loader another thread is running.
+     *
+     * @param running the future that loader completes
+     * @return the loaded object, or null if the loader returned null
+     */
+    private static <T> T join(CompletableFuture<T> running) {
+        try {
+            return running.join();
+        } catch (CompletionException ce) {
+            Throwable cause = ce.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw ce;
+        }
+    }
+
+    /**
+     * Moves an object from the disk tier back into memory, keeping the time it goes stale.
+     *
+     * @param segment the segment responsible for {@code id}
+     * @param id      the identifier of the object
+     * @return the object, or null if there is no unexpired object with {@code id} on disk
+     */
+    private T loadFromDisk(BufferSegment<T> segment, String id) {
+        DiskTier.Entry<T> entry = diskTier.load(id, ticker.currentTimeMillis());
+        if (entry == null) {
+            return null;
+        }
+        T item = serializer.deserialize(entry.bytes);
+        segment.put(item, entry.bytes, entry.expiresAt);
+        return item;
+    }
+
+    /**
+     * Picks the segment responsible for an id.
+     *
+     * @param id a non-null identifier
+     * @return the segment that holds, or would hold, the object with {@code id}
+     */
+    private BufferSegment<T> segmentFor(String id) {
+        return segments[segmentIndex(id)];
+    }
+
+    /**
+     * @param id a non-null identifier
+     * @return the index in segments of the segment responsible for {@code id}
+     */
+    private int segmentIndex(String id) {
+        if (segments.length == 1) {
+            return 0;
+        }
+        int hash = id.hashCode();
+        // Mix the high bits in, since String hashes of similar ids differ mostly in the low bits.
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, segments.length);
+    }
+
+    /**
+     * Splits values by the segment responsible for them, keeping their order.
+     *
+     * @param values the values to split
+     * @param id     gives the id of each value
+     * @return a list per segment, indexed like segments, holding the values whose ids
+     * that segment is responsible for
+     */
+    private <V> List<List<V>> bySegment(Collection<? extends V> values,
+                                        Function<? super V, String> id) {
+        List<List<V>> groups = new ArrayList<>(segments.length);
+        for (int segment = 0; segment < segments.length; segment++) {
+            groups.add(new ArrayList<>());
+        }
+        for (V value : values) {
+            groups.get(segmentIndex(id.apply(value))).add(value);
+        }
+        return groups;
+    }
+
+    /**
+     * Builds FSFTBuffers with optional settings.
+     * Every setting starts at the default used by {@code new FSFTBuffer<>()}:
+     * DSIZE objects, a DTIMEOUT second timeout, DSEGMENTS segments, LRU eviction
+     * and the system clock.
+     *
+     * @param <T> the type of object held by the buffer
+     */
+    public static class Builder<T extends Bufferable> {
+        private long maximumWeight = DSIZE;
+        private Weigher<? super T> weigher = t -> 1;
+        private int timeout = DTIMEOUT;
+        private int segmentCount = DSEGMENTS;
+        private LongFunction<SegmentPolicy<T>> policyFactory = Eviction.LRU::newPolicy;
+        private Serializer<T> serializer = null;
+        private boolean offHeap = false;
+        private Path diskFile = null;
+        private long diskBytes = DiskTier.DEFAULT_MAXIMUM_BYTES;
+        private Path snapshotFile = null;
+        private double refreshAfter = 1;
+        private int gracePeriod = 0;
+        private Function<? super String, ? extends T> refreshLoader = null;
+        private Executor refreshExecutor = null;
+        private Ticker ticker = Ticker.system();
+        private Expiry<? super T> expiry = null;
+        private int negativeTimeout = 0;
+        private int maximumAbsent = 0;
+        private int filterExpectedSize = 0;
+        private RemovalListener<? super T> removalListener = null;
+        private Executor removalExecutor = null;
+
+        /**
+         * Bounds the buffer by number of objects.
+         * This replaces any earlier withMaximumWeight setting.
+         *
+         * @param capacity the number of objects the buffer can hold
+         * @return this builder
+         */
+        public Builder<T> withCapacity(int capacity) {
+            this.maximumWeight = capacity;
+            this.weigher = t -> 1;
+            return this;
+        }
+
+        /**
+         * Bounds the buffer by the total weight of its objects rather than their number.
+         * This replaces any earlier withCapacity setting.
+         *
+         * @param maximumWeight the total weight the buffer can hold
+         * @param weigher       computes the weight of each object, non-null
+         * @return this builder
+         */
+        public Builder<T> withMaximumWeight(long maximumWeight, Weigher<? super T> weigher) {
+            this.maximumWeight = maximumWeight;
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * @param timeout the duration, in seconds, an object should
+         *                be in the buffer before it times out
+         * @return this builder
+         */
+        public Builder<T> withTimeout(int timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Gives each object its own timeout instead of the one set by withTimeout, which
+         * is then only used by a buffer that is not given an expiry.
+         * An object's timeout is computed when it is put or updated, and restarts when
+         * it is touched. A refresh-ahead fraction applies to each object's own timeout.
+         *
+         * @param expiry computes the duration, in seconds, each object should be in the
+         *               buffer before it times out, non-null
+         * @return this builder
+         */
+        public Builder<T> withExpiry(Expiry<? super T> expiry) {
+            this.expiry = expiry;
+            return this;
+        }
+
+        /**
+         * @param segmentCount the number of independently locked segments,
+         *                     {@code segmentCount} > 0; it is lowered to the
+         *                     capacity if it is larger
+         * @return this builder
+         */
+        public Builder<T> withSegments(int segmentCount) {
+            if (segmentCount <= 0) {
+                throw new IllegalArgumentException("segmentCount must be positive");
+            }
+            this.segmentCount = segmentCount;
+            return this;
+        }
+
+        /**
+         * @param eviction the built-in policy that picks which object to remove
+         *                 when the buffer is full, non-null
+         * @return this builder
+         */
+        public Builder<T> withEvictionPolicy(Eviction eviction) {
+            this.policyFactory = eviction::newPolicy;
+            return this;
+        }
+
+        /**
+         * Uses a custom eviction policy, which sees only the ids and weights of the objects
+         * in each segment. This replaces any earlier withEvictionPolicy setting.
+         *
+         * @param policyFactory creates a new, empty policy for a segment given that
+         *                      segment's weight budget, which is its capacity when the
+         *                      buffer is bounded by number of objects; non-null
+         * @return this builder
+         */
+        public Builder<T> withEvictionPolicy(LongFunction<? extends EvictionPolicy> policyFactory) {
+            this.policyFactory = segmentWeight -> new CustomPolicy<>(
+                policyFactory.apply(segmentWeight));
+            return this;
+        }
+
+        /**
+         * Keeps the buffered objects outside the Java heap, in direct memory, so that a large
+         * buffer does not lengthen garbage collection pauses. Only ids and bookkeeping stay on
+         * the heap; each get rebuilds a new object from its stored bytes, so callers should not
+         * rely on getting back the same instance they put.
+         * The capacity or maximum weight bounds the objects held, not the direct memory
+         * behind them: each object takes a block of the next power of two bytes, up to
+         * twice its serialized size, and memory reserved for blocks of one size is kept
+         * for objects of that size after they are removed.
+         *
+         * @param serializer converts objects to and from the stored bytes, non-null;
+         *                   it replaces the serializer given to withDiskTier, if any
+         * @return this builder
+         */
+        public Builder<T> withOffHeapStorage(Serializer<T> serializer) {
+            this.serializer = serializer;
+            this.offHeap = true;
+            return this;
+        }
+
+        /**
+         * Adds a second tier on disk: objects removed from memory to make space are
+         * written to {@code file}, and a get that misses in memory moves them back.
+         * Objects on disk keep the time they go stale, and the file keeps them across
+         * restarts, so a new buffer on the same file starts with the unexpired objects
+         * an earlier one left there.
+         * The objects on disk are bounded to 256 MB; use the overload taking
+         * {@code maximumBytes} to choose another bound.
+         * Only one buffer should use a file at a time.
+         *
+         * @param file       the file holding the disk tier, whose directory must exist
+         * @param serializer converts objects to and from the stored bytes, non-null;
+         *                   it replaces the serializer given to withOffHeapStorage, if any
+         * @return this builder
+         */
+        public Builder<T> withDiskTier(Path file, Serializer<T> serializer) {
+            return withDiskTier(file, serializer, DiskTier.DEFAULT_MAXIMUM_BYTES);
+        }
+
+        /**
+         * Adds a second tier on disk, like withDiskTier(file, serializer), holding at most
+         * {@code maximumBytes} of objects, counting their ids and a few bytes of framing.
+         * When objects removed from memory would take the tier over that bound, the
+         * objects written to disk longest ago are removed, after any that have expired.
+         * The file itself can grow to about twice the bound before it is compacted.
+         *
+         * @param file         the file holding the disk tier, whose directory must exist
+         * @param serializer   converts objects to and from the stored bytes, non-null;
+         *                     it replaces the serializer given to withOffHeapStorage, if any
+         * @param maximumBytes the number of bytes the tier holds at most,
+         *                     {@code maximumBytes} > 0
+         * @return this builder
+         */
+        public Builder<T> withDiskTier(Path file, Serializer<T> serializer, long maximumBytes) {
+            if (maximumBytes <= 0) {
+                throw new IllegalArgumentException("maximumBytes must be positive");
+            }
+            this.diskFile = file;
+            this.serializer = serializer;
+            this.diskBytes = maximumBytes;
+            return this;
+        }
+
+        /**
+         * Makes the buffer start with the objects in a snapshot written by snapshot() to
+         * {@code file}, if there is one, and lets snapshot() write new ones there.
+         * Restored objects keep the time they had left before going stale when the
+         * snapshot was written, and are added in the order they were last used, so that
+         * the eviction policy starts with a similar order.
+         * The file is read once, sequentially, by build().
+         *
+         * @param file       the file holding the snapshot, whose directory must exist;
+         *                   it need not exist yet
+         * @param serializer converts objects to and from the stored bytes, non-null;
+         *                   it replaces the serializer given to withOffHeapStorage or
+         *                   withDiskTier, if any
+         * @return this builder
+         */
+        public Builder<T> withSnapshot(Path file, Serializer<T> serializer) {
+            this.snapshotFile = file;
+            this.serializer = serializer;
+            return this;
+        }
+
+        /**
+         * Reloads objects that are still being read before they go stale, so that readers of
+         * a popular object do not all wait on a reload when it times out.
+         * A get of an object that was put, updated or touched at least
+         * {@code refreshAfter * timeout} seconds ago runs {@code loader} for it on
+         * {@code executor}, and the result replaces the object and restarts its timeout.
+         * Until the reload finishes, gets keep returning the current object, even once it
+         * is stale, for up to {@code gracePeriod} seconds after it went stale.
+         * Only one reload runs per id at a time, shared with get(id, loader).
+         *
+         * @param refreshAfter the fraction of the timeout after which reads reload an object,
+         *                     0 < {@code refreshAfter} <= 1; with 1, only stale objects
+         *                     in their grace period are reloaded
+         * @param gracePeriod  the number of seconds a stale object is still returned while
+         *                     it is reloaded, {@code gracePeriod} >= 0
+         * @param loader       computes a fresh object for an id; if it returns null or
+         *                     throws, the current object is kept, non-null
+         * @param executor     runs the reloads, non-null
+         * @return this builder
+         */
+        public Builder<T> withRefreshAhead(double refreshAfter, int gracePeriod,
+                                           Function<? super String, ? extends T> loader,
+                                           Executor executor) {
+            if (!(refreshAfter > 0 && refreshAfter <= 1)) {
+                throw new IllegalArgumentException("refreshAfter must be in (0, 1]");
+            }
+            if (gracePeriod < 0) {
+                throw new IllegalArgumentException("gracePeriod must not be negative");
+            }
+            this.refreshAfter = refreshAfter;
+            this.gracePeriod = gracePeriod;
+            this.refreshLoader = loader;
+            this.refreshExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Remembers ids that get(id, loader) found no object for, so that looking up an id
+         * that does not exist costs one loader call per {@code negativeTimeout} seconds
+         * rather than one per get. Negative entries do not count against the buffer's
+         * weight budget, and only the {@code maximumSize} most recent are kept.
+         *
+         * @param negativeTimeout the number of seconds an id with no object is remembered,
+         *                        usually less than the timeout, {@code negativeTimeout} > 0
+         * @param maximumSize     the number of ids remembered at most, {@code maximumSize} > 0
+         * @return this builder
+         */
+        public Builder<T> withNegativeCaching(int negativeTimeout, int maximumSize) {
+            if (negativeTimeout <= 0) {
+                throw new IllegalArgumentException("negativeTimeout must be positive");
+            }
+            if (maximumSize <= 0) {
+                throw new IllegalArgumentException("maximumSize must be positive");
+            }
+            this.negativeTimeout = negativeTimeout;
+            this.maximumAbsent = maximumSize;
+            return this;
+        }
+
+        /**
+         * Keeps a counting Bloom filter of the ids each segment holds, so that a get for
+         * an id the buffer does not hold usually returns at once, without taking the
+         * segment's lock. The filter is updated whenever an object or negative entry is
+         * added or removed. Its false-positive rate, reported by stats(), is about 2% while
+         * the buffer holds {@code expectedSize} objects, and grows if it holds more.
+         *
+         * @param expectedSize the number of objects the buffer is expected to hold,
+         *                     not counting negative entries, {@code expectedSize} > 0
+         * @return this builder
+         */
+        public Builder<T> withMissFilter(int expectedSize) {
+            if (expectedSize <= 0) {
+                throw new IllegalArgumentException("expectedSize must be positive");
+            }
+            this.filterExpectedSize = expectedSize;
+            return this;
+        }
+
+        /**
+         * Reports every object that leaves the buffer, and every object replaced by
+         * update or a refresh, to a listener, with the reason it was removed.
+         * Listeners run on {@code executor} after the buffer's locks are released,
+         * so a slow listener does not hold up puts or gets. Removals the listener throws
+         * on, or that the executor refuses, are counted in CacheStats.removalFailureCount.
+         *
+         * @param listener told of each removed object, non-null
+         * @param executor runs the listener, non-null
+         * @return this builder
+         */
+        public Builder<T> withRemovalListener(RemovalListener<? super T> listener,
+                                              Executor executor) {
+            this.removalListener = listener;
+            this.removalExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Sets the clock that timeouts are measured with, such as Ticker.coarse() to avoid
+         * reading the system clock on every operation, or a FakeTicker in tests.
+         * Background cleanup still runs about once a second of real time, and removes
+         * the objects that are stale according to this clock.
+         *
+         * @param ticker the source of the current time, non-null
+         * @return this builder
+         */
+        public Builder<T> withTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * @return a new buffer with this builder's settings, empty apart from any
+         * objects already in its disk tier or snapshot
+         * @throws java.io.UncheckedIOException if the disk tier file cannot be opened,
+         *                                      or the snapshot file cannot be read
+         */
+        public FSFTBuffer<T> build() {
+            return new FSFTBuffer<>(this);
         }
-        return returnValue;
     }
 }
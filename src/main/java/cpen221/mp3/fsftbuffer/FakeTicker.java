@@ -0,0 +1,47 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ticker whose time only moves when it is told to, so that timeouts can be tested
+ * and benchmarked deterministically without sleeping.
+ */
+public class FakeTicker implements Ticker {
+
+    private final AtomicLong currentTime;
+
+    /* Representation Invariant */
+    // currentTime is non-null.
+
+    /* Abstraction Function */
+    // a FakeTicker is a clock that reads currentTime, in milliseconds since the epoch.
+
+    /* Thread Safety Argument */
+    // currentTime is an AtomicLong, so the ticker can be advanced and read from
+    // any number of threads.
+
+    /**
+     * @param startMillis the time the ticker starts at, in milliseconds since the epoch
+     */
+    public FakeTicker(long startMillis) {
+        this.currentTime = new AtomicLong(startMillis);
+    }
+
+    /**
+     * Moves the time forward.
+     *
+     * @param duration how far to move it, {@code duration} >= 0
+     * @param unit     the unit of {@code duration}, non-null
+     * @return this ticker
+     */
+    public FakeTicker advance(long duration, TimeUnit unit) {
+        currentTime.addAndGet(unit.toMillis(duration));
+        return this;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return currentTime.get();
+    }
+}
@@ -0,0 +1,102 @@
+package cpen221.mp3.fsftbuffer;
+
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+    private static final int SAMPLES_PER_OBJECT = 10;
+    private static final int MAX_OBJECTS = 1 << 17;
+
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int additions;
+
+    /* Representation Invariant */
+    // table packs sixteen 4-bit counters into each long, and table.length * 16 is a
+    // power of two equal to counterMask + 1.
+    // sampleSize > 0 and 0 <= additions < sampleSize between calls.
+
+    /* Abstraction Function */
+    // a FrequencySketch is a count-min sketch of how often each id was recorded recently.
+    // An id's estimate is the smallest of the SEEDS.length counters it hashes to, capped at
+    // MAX_COUNT. Every sampleSize additions all counters are halved, so old popularity
+    // fades and the sketch tracks the recent access pattern.
+
+    /* Thread Safety Argument */
+    // not thread-safe; it belongs to an eviction policy that is only used while
+    // holding its segment's lock.
+
+    /**
+     * Creates a sketch sized for a segment of the given weight budget.
+     * When objects weigh more than one, this overestimates how many objects the segment
+     * holds, so the size is capped to keep the sketch small.
+     *
+     * @param maximumWeight the weight budget of the segment, {@code maximumWeight} >= 0
+     */
+    FrequencySketch(long maximumWeight) {
+        int objects = (int) Math.min(Math.max(maximumWeight, 1), MAX_OBJECTS);
+        int counters = Integer.highestOneBit(Math.max(objects * 4, 16) - 1) << 1;
+        this.table = new long[counters / 16];
+        this.counterMask = counters - 1;
+        this.sampleSize = objects * SAMPLES_PER_OBJECT;
+    }
+
+    /**
+     * Records one occurrence of {@code id}.
+     *
+     * @param id a non-null identifier
+     */
+    void increment(String id) {
+        int hash = spread(id.hashCode());
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int counter = counterFor(hash, row);
+            int shift = (counter & 15) << 2;
+            int index = counter >>> 4;
+            if (((table[index] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @param id a non-null identifier
+     * @return the estimated number of recent occurrences of {@code id}, between 0 and 15
+     */
+    int frequency(String id) {
+        int hash = spread(id.hashCode());
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int counter = counterFor(hash, row);
+            int count = (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & MAX_COUNT);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    private void reset() {
+        for (int index = 0; index < table.length; index++) {
+            table[index] = (table[index] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int counterFor(int hash, int row) {
+        long mixed = (hash + SEEDS[row]) * SEEDS[row];
+        mixed += mixed >>> 32;
+        return (int) mixed & counterMask;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,31 @@
+package cpen221.mp3.fsftbuffer;
+
+class LruPolicy<T extends Bufferable> implements SegmentPolicy<T> {
+
+    private final AccessQueue<T> accessOrder = new AccessQueue<>();
+
+    /* Representation Invariant */
+    // accessOrder holds exactly the bufferObjects inserted and not yet removed.
+
+    /* Abstraction Function */
+    // an LruPolicy evicts the least recently used object, accessOrder's first element.
+
+    /* Thread Safety Argument */
+    // not thread-safe; see SegmentPolicy.
+
+    public void recordInsert(BufferObject<T> bufferObject) {
+        accessOrder.linkLast(bufferObject);
+    }
+
+    public void recordAccess(BufferObject<T> bufferObject) {
+        accessOrder.moveToLast(bufferObject);
+    }
+
+    public void recordRemoval(BufferObject<T> bufferObject) {
+        accessOrder.unlink(bufferObject);
+    }
+
+    public BufferObject<T> victim() {
+        return accessOrder.peekFirst();
+    }
+}
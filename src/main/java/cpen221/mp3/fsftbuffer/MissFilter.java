@@ -0,0 +1,112 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+class MissFilter {
+
+    /* the number of counters each id increments */
+    private static final int HASHES = 4;
+
+    /* counters per expected id; with four hashes, about 2% of absent ids pass the filter
+     * while it holds the expected number of ids */
+    private static final int COUNTERS_PER_ID = 8;
+
+    /* the largest number of counters, so that their number stays a power of two */
+    private static final int MAX_COUNTERS = 1 << 30;
+
+    private final AtomicIntegerArray counters;
+    private final int mask;
+
+    /* Representation Invariant */
+    // counters.length() is a power of two, and mask is counters.length() - 1.
+    // every counter is greater than or equal to zero.
+
+    /* Abstraction Function */
+    // a MissFilter is a counting Bloom filter over a multiset of ids: counters[i] is the
+    // number of ids added and not removed whose HASHES positions include i, counted once
+    // per matching position. An id whose positions are not all non-zero was never added,
+    // or was removed since; an id whose positions all are may or may not have been.
+
+    /* Thread Safety Argument */
+    // add and remove are only called while holding the lock of the segment that owns the
+    // filter, so they never run concurrently. counters is an AtomicIntegerArray, so
+    // mightContain can read it from any thread without the lock, and sees every add and
+    // remove that happened before it.
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param expectedIds the number of ids the filter is expected to hold at once,
+     *                    {@code >= 0}; more may be added, at the cost of more false positives
+     */
+    MissFilter(int expectedIds) {
+        long wanted = Math.max((long) expectedIds * COUNTERS_PER_ID, HASHES);
+        int size = (int) Math.min(Long.highestOneBit(wanted - 1) << 1, MAX_COUNTERS);
+        this.counters = new AtomicIntegerArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Must be called while holding the owning segment's lock.
+     *
+     * @param id an id now resident in the segment
+     */
+    void add(String id) {
+        int hash = spread(id.hashCode());
+        int step = step(hash);
+        for (int i = 0; i < HASHES; i++) {
+            counters.getAndIncrement((hash + i * step) & mask);
+        }
+    }
+
+    /**
+     * Must be called while holding the owning segment's lock.
+     *
+     * @param id an id added earlier and no longer resident in the segment
+     */
+    void remove(String id) {
+        int hash = spread(id.hashCode());
+        int step = step(hash);
+        for (int i = 0; i < HASHES; i++) {
+            counters.getAndDecrement((hash + i * step) & mask);
+        }
+    }
+
+    /**
+     * May be called from any thread, without holding a lock.
+     *
+     * @param id the identifier to look up
+     * @return false if {@code id} is certainly not resident, true if it may be
+     */
+    boolean mightContain(String id) {
+        int hash = spread(id.hashCode());
+        int step = step(hash);
+        for (int i = 0; i < HASHES; i++) {
+            if (counters.get((hash + i * step) & mask) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param hashCode the hash code of an id
+     * @return a hash whose low bits depend on all the bits of {@code hashCode}
+     */
+    private static int spread(int hashCode) {
+        int hash = hashCode * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Derives the distance between an id's positions from its first hash, so that ids
+     * sharing a first position rarely share the others.
+     *
+     * @param hash the spread hash of an id
+     * @return an odd step, so that an id's positions are distinct
+     */
+    private static int step(int hash) {
+        int step = hash * 0x85EBCA6B;
+        return (step ^ (step >>> 13)) | 1;
+    }
+}
@@ -0,0 +1,128 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+class OffHeapStore {
+
+    /* direct memory is reserved from the operating system in slabs of this many bytes */
+    private static final int SLAB_SIZE = 1 << 20;
+
+    /* blocks come in power of two sizes from 2^MIN_SHIFT bytes up to a whole slab */
+    private static final int MIN_SHIFT = 6;
+    private static final int MAX_SHIFT = 20;
+
+    private final List<ArrayDeque<ByteBuffer>> freeBlocks;
+    private final ByteBuffer[] currentSlabs;
+
+    /* Representation Invariant */
+    // freeBlocks and currentSlabs both have one entry per size class,
+    // MIN_SHIFT to MAX_SHIFT, indexed by shift - MIN_SHIFT.
+    // every block in freeBlocks.get(c) is a direct buffer of capacity 2^(c + MIN_SHIFT)
+    // that no BufferObject refers to.
+    // currentSlabs[c] is null or a direct buffer whose remaining bytes have never
+    // been handed out; its position is a multiple of the class size.
+
+    /* Abstraction Function */
+    // an OffHeapStore is a slab allocator of direct memory. Values up to a slab in size get a
+    // block of the smallest size class that fits, carved from the current slab of that class
+    // or reused from a block released earlier. Larger values get a dedicated direct buffer.
+    // Only the small ByteBuffer views of the blocks live on the heap.
+    // Slabs are never returned, and a released block is only reused for its own size
+    // class, so the direct memory reserved is the largest amount each class ever held at
+    // once, and a value may take up to twice its size in its block.
+
+    /* Thread Safety Argument */
+    // OffHeapStore is not thread-safe on its own; it is owned by a single BufferSegment
+    // and is only used while holding that segment's lock.
+
+    /**
+     * Creates an empty store. No direct memory is reserved until the first value is stored.
+     */
+    OffHeapStore() {
+        int classes = MAX_SHIFT - MIN_SHIFT + 1;
+        this.freeBlocks = new ArrayList<>(classes);
+        this.currentSlabs = new ByteBuffer[classes];
+        for (int sizeClass = 0; sizeClass < classes; sizeClass++) {
+            freeBlocks.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Copies bytes into direct memory.
+     *
+     * @param bytes a non-null array
+     * @return a block holding a copy of {@code bytes}, whose limit is {@code bytes.length}
+     */
+    ByteBuffer store(byte[] bytes) {
+        ByteBuffer block = allocate(bytes.length);
+        block.clear();
+        block.put(bytes);
+        block.flip();
+        return block;
+    }
+
+    /**
+     * Copies a stored value back onto the heap.
+     *
+     * @param block a block returned by store and not yet released
+     * @return a copy of the bytes that were stored
+     */
+    byte[] load(ByteBuffer block) {
+        byte[] bytes = new byte[block.limit()];
+        block.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Makes a block available for reuse.
+     *
+     * @param block a block returned by store and not yet released;
+     *              it must not be used afterwards
+     */
+    void release(ByteBuffer block) {
+        int sizeClass = sizeClass(block.capacity());
+        if (sizeClass >= 0) {
+            freeBlocks.get(sizeClass).push(block);
+        }
+        // Dedicated buffers are returned to the operating system once collected.
+    }
+
+    private ByteBuffer allocate(int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass < 0) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer block = freeBlocks.get(sizeClass).poll();
+        if (block != null) {
+            return block;
+        }
+
+        int blockSize = 1 << (sizeClass + MIN_SHIFT);
+        ByteBuffer slab = currentSlabs[sizeClass];
+        if (slab == null || slab.remaining() < blockSize) {
+            slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+            currentSlabs[sizeClass] = slab;
+        }
+        slab.limit(slab.position() + blockSize);
+        block = slab.slice();
+        slab.position(slab.limit());
+        slab.limit(slab.capacity());
+        return block;
+    }
+
+    /**
+     * @param size a number of bytes, {@code size} >= 0
+     * @return the index of the smallest size class whose blocks hold {@code size} bytes,
+     * or -1 if {@code size} is larger than a slab
+     */
+    private static int sizeClass(int size) {
+        if (size > SLAB_SIZE) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+    }
+}
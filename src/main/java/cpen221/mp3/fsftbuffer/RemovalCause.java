@@ -0,0 +1,30 @@
+package cpen221.mp3.fsftbuffer;
+
+/**
+ * Why an object left an FSFTBuffer, as reported to a RemovalListener.
+ */
+public enum RemovalCause {
+
+    /**
+     * The eviction policy removed the object to make space, or an update would have
+     * made it heavier than the buffer's whole budget.
+     * Objects moved to a disk tier are still in the buffer, and are not reported.
+     */
+    SIZE,
+
+    /**
+     * The object went stale, and its grace period, if any, ended.
+     */
+    EXPIRED,
+
+    /**
+     * update replaced the object with another one with the same id, which stays in
+     * the buffer; a background refresh replaces objects the same way.
+     */
+    REPLACED,
+
+    /**
+     * invalidate removed the object.
+     */
+    EXPLICIT
+}
@@ -0,0 +1,25 @@
+package cpen221.mp3.fsftbuffer;
+
+/**
+ * Reacts to objects leaving an FSFTBuffer, for example to emit metrics or to invalidate
+ * indexes derived from them.
+ *
+ * @param <T> the type of object held by the buffer
+ */
+@FunctionalInterface
+public interface RemovalListener<T extends Bufferable> {
+
+    /**
+     * Called on the buffer's removal executor some time after an object is removed,
+     * never while holding a lock of the buffer, so it may be slow or call the buffer.
+     * Removals are reported in batches, which may run in any order, and at the same
+     * time if the executor runs several tasks at once.
+     * An exception it throws is counted in CacheStats.removalFailureCount and otherwise
+     * ignored, and the rest of the batch is still reported.
+     *
+     * @param id    the identifier of the removed object
+     * @param value the removed object
+     * @param cause why the object was removed
+     */
+    void onRemoval(String id, T value, RemovalCause cause);
+}
@@ -0,0 +1,56 @@
+package cpen221.mp3.fsftbuffer;
+
+/**
+ * Decides which object a segment of an FSFTBuffer removes when it is over capacity,
+ * or over its weight budget for buffers bounded by weight.
+ * A segment tells its policy about every object that is added, used or removed, and asks
+ * it for a victim after adding an object that puts the segment over capacity.
+ * Each segment has its own policy instance, and calls it only while holding its lock,
+ * so implementations need not be thread-safe.
+ *
+ * @param <T> the type of object held by the buffer
+ */
+interface SegmentPolicy<T extends Bufferable> {
+
+    /**
+     * Records that an object was added to the segment.
+     * An object replaced through update by one of a different weight is recorded as
+     * removed and then inserted again, so policies may track weights per queue.
+     *
+     * @param bufferObject the newly added, non-null bufferObject
+     */
+    void recordInsert(BufferObject<T> bufferObject);
+
+    /**
+     * Records that an object in the segment was used by a get, touch or update.
+     *
+     * @param bufferObject a non-null bufferObject previously passed to recordInsert
+     */
+    void recordAccess(BufferObject<T> bufferObject);
+
+    /**
+     * Records that an object was looked up but is not in the segment.
+     * Frequency-aware policies use this to learn about objects before they are added.
+     *
+     * @param id the identifier that was looked up
+     */
+    default void recordMiss(String id) {
+    }
+
+    /**
+     * Records that an object left the segment, whether it was chosen by victim(),
+     * went stale or was replaced.
+     *
+     * @param bufferObject a non-null bufferObject previously passed to recordInsert
+     */
+    void recordRemoval(BufferObject<T> bufferObject);
+
+    /**
+     * Chooses the object to remove from a segment that is over capacity.
+     * This does not remove it; the segment calls recordRemoval once it has.
+     *
+     * @return a bufferObject that has been inserted and not removed; never null
+     * when at least one such bufferObject exists
+     */
+    BufferObject<T> victim();
+}
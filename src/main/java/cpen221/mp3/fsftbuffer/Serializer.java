@@ -0,0 +1,22 @@
+package cpen221.mp3.fsftbuffer;
+
+/**
+ * Converts objects to and from bytes, for buffers that keep their objects
+ * outside the Java heap.
+ *
+ * @param <T> the type of object held by the buffer
+ */
+public interface Serializer<T extends Bufferable> {
+
+    /**
+     * @param t a non-null object
+     * @return a byte encoding of {@code t} from which deserialize can rebuild it
+     */
+    byte[] serialize(T t);
+
+    /**
+     * @param bytes bytes produced by serialize
+     * @return a new object equal in content to the one that was serialized
+     */
+    T deserialize(byte[] bytes);
+}
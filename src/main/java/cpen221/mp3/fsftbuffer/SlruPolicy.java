@@ -0,0 +1,71 @@
+package cpen221.mp3.fsftbuffer;
+
+class SlruPolicy<T extends Bufferable> implements SegmentPolicy<T> {
+
+    static final int PROBATION = 1;
+    static final int PROTECTED = 2;
+
+    /* the share of the weight budget reserved for objects that have been used more than once */
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final AccessQueue<T> probation = new AccessQueue<>();
+    private final AccessQueue<T> protectedQueue = new AccessQueue<>();
+    private final long maxProtected;
+
+    /* Representation Invariant */
+    // every bufferObject inserted and not yet removed is in exactly one of probation
+    // and protectedQueue, and its queue field names that queue.
+    // protectedQueue.weight() <= maxProtected between calls, and maxProtected >= 0.
+
+    /* Abstraction Function */
+    // an SlruPolicy is a segmented LRU: new objects start on probation, and objects used
+    // while on probation are promoted to the protected queue. Objects pushed out of the
+    // protected queue go back to probation, and victims come from probation first,
+    // so objects used only once cannot push out objects used repeatedly.
+
+    /* Thread Safety Argument */
+    // not thread-safe; see SegmentPolicy.
+
+    /**
+     * Creates a segmented LRU policy.
+     *
+     * @param maximumWeight the weight budget of the segment, {@code maximumWeight} >= 0
+     */
+    SlruPolicy(long maximumWeight) {
+        this.maxProtected = (long) (maximumWeight * PROTECTED_SHARE);
+    }
+
+    public void recordInsert(BufferObject<T> bufferObject) {
+        bufferObject.queue = PROBATION;
+        probation.linkLast(bufferObject);
+    }
+
+    public void recordAccess(BufferObject<T> bufferObject) {
+        if (bufferObject.queue == PROTECTED) {
+            protectedQueue.moveToLast(bufferObject);
+            return;
+        }
+        probation.unlink(bufferObject);
+        bufferObject.queue = PROTECTED;
+        protectedQueue.linkLast(bufferObject);
+        while (protectedQueue.weight() > maxProtected) {
+            BufferObject<T> demoted = protectedQueue.peekFirst();
+            protectedQueue.unlink(demoted);
+            demoted.queue = PROBATION;
+            probation.linkLast(demoted);
+        }
+    }
+
+    public void recordRemoval(BufferObject<T> bufferObject) {
+        if (bufferObject.queue == PROTECTED) {
+            protectedQueue.unlink(bufferObject);
+        } else {
+            probation.unlink(bufferObject);
+        }
+    }
+
+    public BufferObject<T> victim() {
+        BufferObject<T> victim = probation.peekFirst();
+        return victim != null ? victim : protectedQueue.peekFirst();
+    }
+}
@@ -0,0 +1,136 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+class SnapshotFile<T extends Bufferable> {
+
+    /* the first bytes of every snapshot, "FSFT" in ASCII */
+    private static final int MAGIC = 0x46534654;
+
+    private static final int VERSION = 1;
+
+    /* snapshots are read and written through buffers this large, so that
+     * restoring a large buffer is a few long sequential reads */
+    private static final int IO_BUFFER_BYTES = 1 << 20;
+
+    private final Path file;
+    private final Serializer<T> serializer;
+
+    /* Representation Invariant */
+    // file and serializer are non-null.
+    // a snapshot on disk is MAGIC, VERSION and the number of records, followed by that
+    // many records, each the length of the serialized object, the number of
+    // milliseconds the object had left before going stale, and the serialized object.
+
+    /* Abstraction Function */
+    // a SnapshotFile is the copy of a buffer's objects last written to file, each with
+    // how long it had left before going stale, in the order they were last used,
+    // least recently used first.
+    // Times are kept relative to when the snapshot was written, so that a snapshot
+    // restored later, or on a machine whose clock differs, keeps each object's
+    // remaining time rather than its wall-clock expiry.
+
+    /* Thread Safety Argument */
+    // A SnapshotFile holds no mutable state. write() builds the new snapshot in a
+    // separate file and moves it into place atomically, so a concurrent or
+    // interrupted write never leaves a partial snapshot at file.
+    // Concurrent writes each produce a whole snapshot, and the last move wins.
+
+    /**
+     * @param file       the file holding the snapshot, whose directory must exist
+     * @param serializer converts objects to and from the bytes stored in the file, non-null
+     */
+    SnapshotFile(Path file, Serializer<T> serializer) {
+        this.file = file;
+        this.serializer = serializer;
+    }
+
+    /**
+     * Replaces the snapshot with the given objects.
+     *
+     * @param entries     the objects to write, least recently used first
+     * @param currentTime the time at which their expiry times are measured, in milliseconds
+     * @return the number of objects written, leaving out those already stale
+     * @throws UncheckedIOException if the snapshot cannot be written
+     */
+    int write(List<DiskTier.Entry<T>> entries, long currentTime) {
+        Path written = file.resolveSibling(file.getFileName() + ".tmp");
+        int count = 0;
+        for (DiskTier.Entry<T> entry : entries) {
+            if (entry.expiresAt > currentTime) {
+                count++;
+            }
+        }
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(written), IO_BUFFER_BYTES))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                for (DiskTier.Entry<T> entry : entries) {
+                    if (entry.expiresAt <= currentTime) {
+                        continue;
+                    }
+                    byte[] bytes = entry.bytes == null
+                        ? serializer.serialize(entry.item) : entry.bytes;
+                    out.writeInt(bytes.length);
+                    out.writeLong(entry.expiresAt - currentTime);
+                    out.write(bytes);
+                }
+            }
+            Files.move(written, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Could not write " + file, ioe);
+        }
+        return count;
+    }
+
+    /**
+     * Reads the snapshot back, in the order it was written.
+     * A missing file is an empty snapshot. If the file was not written by a SnapshotFile,
+     * nothing is read from it; if it was cut short or damaged, the whole records before
+     * the damage are.
+     *
+     * @param currentTime the time at which the restored objects' expiry times are
+     *                    measured, in milliseconds
+     * @param restore     receives each object in the snapshot, as its bytes and the time
+     *                    at which it goes stale counted from {@code currentTime}
+     * @throws UncheckedIOException if the file exists but cannot be read
+     */
+    void read(long currentTime, Consumer<DiskTier.Entry<T>> restore) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Files.newInputStream(file), IO_BUFFER_BYTES))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.out.println("Ignoring " + file + ", which is not a buffer snapshot");
+                return;
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                int length = in.readInt();
+                if (length < 0) {
+                    return;
+                }
+                byte[] bytes = new byte[length];
+                long remaining = in.readLong();
+                in.readFully(bytes);
+                restore.accept(new DiskTier.Entry<>(null, currentTime + remaining, null, bytes));
+            }
+        } catch (NoSuchFileException | EOFException absentOrPartial) {
+            // Nothing, or nothing more, to restore.
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Could not read " + file, ioe);
+        }
+    }
+}
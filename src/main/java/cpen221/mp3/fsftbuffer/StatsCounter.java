@@ -0,0 +1,102 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+class StatsCounter {
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder evictionWeight = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder filteredMissCount = new LongAdder();
+    private final LongAdder filterFalsePositiveCount = new LongAdder();
+    private final LongAdder removalFailureCount = new LongAdder();
+
+    /* Abstraction Function */
+    // a StatsCounter is the running totals that CacheStats snapshots, see CacheStats.
+
+    /* Thread Safety Argument */
+    // Every counter is a LongAdder, which spreads concurrent increments over
+    // separate cells, so threads recording from different segments do not contend
+    // on a single memory location and no lock is taken.
+    // A snapshot reads each counter separately, so counters recorded during
+    // snapshot() may be included in some totals and not others.
+
+    void recordHit() {
+        hitCount.increment();
+    }
+
+    void recordMiss() {
+        missCount.increment();
+    }
+
+    /**
+     * @param count the number of gets in a batch that found their object
+     */
+    void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    /**
+     * @param count the number of gets in a batch that did not find their object
+     */
+    void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    /**
+     * @param loadTime how long the load took, in nanoseconds
+     */
+    void recordLoadSuccess(long loadTime) {
+        loadSuccessCount.increment();
+        totalLoadTime.add(loadTime);
+    }
+
+    /**
+     * @param loadTime how long the load took, in nanoseconds
+     */
+    void recordLoadFailure(long loadTime) {
+        loadFailureCount.increment();
+        totalLoadTime.add(loadTime);
+    }
+
+    /**
+     * @param weight the weight of the evicted object
+     */
+    void recordEviction(int weight) {
+        evictionCount.increment();
+        evictionWeight.add(weight);
+    }
+
+    void recordExpiration() {
+        expiredCount.increment();
+    }
+
+    void recordFilteredMiss() {
+        filteredMissCount.increment();
+    }
+
+    void recordFilterFalsePositive() {
+        filterFalsePositiveCount.increment();
+    }
+
+    /**
+     * @param count the number of removal notifications that did not reach the listener
+     */
+    void recordRemovalFailures(int count) {
+        removalFailureCount.add(count);
+    }
+
+    /**
+     * @return the current totals
+     */
+    CacheStats snapshot() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), loadSuccessCount.sum(),
+            loadFailureCount.sum(), totalLoadTime.sum(), evictionCount.sum(),
+            evictionWeight.sum(), expiredCount.sum(), filteredMissCount.sum(),
+            filterFalsePositiveCount.sum(), removalFailureCount.sum());
+    }
+}
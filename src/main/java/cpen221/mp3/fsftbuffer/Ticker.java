@@ -0,0 +1,34 @@
+package cpen221.mp3.fsftbuffer;
+
+/**
+ * A source of the current time, so that buffers and the code around them can read a
+ * cheaper clock than the system one, or a controllable one in tests and benchmarks.
+ * Times are in milliseconds since the epoch, like System.currentTimeMillis(), since
+ * they may be written to disk and compared across restarts.
+ */
+public interface Ticker {
+
+    /**
+     * @return the current time, in milliseconds since the epoch
+     */
+    long currentTimeMillis();
+
+    /**
+     * @return a ticker that reads System.currentTimeMillis() on every call
+     */
+    static Ticker system() {
+        return System::currentTimeMillis;
+    }
+
+    /**
+     * Returns a ticker that reads a cached time instead of the system clock.
+     * The cached time is updated by a background thread every
+     * CoarseTicker.RESOLUTION_MILLIS milliseconds, so it may lag behind the system clock
+     * by about that much, which is negligible next to timeouts measured in seconds.
+     *
+     * @return the shared coarse ticker
+     */
+    static Ticker coarse() {
+        return CoarseTicker.INSTANCE;
+    }
+}
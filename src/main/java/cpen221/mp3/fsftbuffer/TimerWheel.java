@@ -0,0 +1,163 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.function.Consumer;
+
+class TimerWheel<T extends Bufferable> {
+
+    // Each level of the wheel has BUCKETS[level] buckets that each span 2^SHIFTS[level] ms,
+    // so the levels cover about 16 seconds, 17 minutes, 19 hours and 12 days, and the
+    // last level holds everything further away than that.
+    private static final int[] BUCKETS = {64, 64, 64, 16, 1};
+    private static final int[] SHIFTS = {8, 14, 20, 26, 30};
+
+    private final BufferObject<T>[][] wheel;
+    private final long graceMillis;
+    private long currentTime;
+
+    /* Representation Invariant */
+    // wheel has one row per level, and row level has BUCKETS[level] buckets.
+    // every bucket is the sentinel of a circular doubly linked list of BufferObjects
+    // threaded through their prevTimer and nextTimer links.
+    // every scheduled BufferObject is in exactly one bucket.
+    // currentTime never decreases.
+    // graceMillis is greater than or equal to zero.
+
+    /* Abstraction Function */
+    // a TimerWheel is the set of scheduled BufferObjects, each due to be removed graceMillis
+    // after its expiresAt() time; currentTime is the time up to which the wheel has been
+    // advanced.
+    // A BufferObject due to be removed d ms after currentTime sits at the lowest level whose next level
+    // spans more than d, in the bucket that level's tick for its expiry time maps to.
+
+    /* Thread Safety Argument */
+    // TimerWheel is not thread-safe on its own; it is owned by a single BufferSegment
+    // and is only used while holding that segment's lock.
+
+    /**
+     * Creates an empty timer wheel.
+     *
+     * @param currentTime the time, in milliseconds, the wheel starts at
+     * @param graceMillis how long, in milliseconds, stale objects are kept before
+     *                    they are removed, {@code graceMillis} >= 0
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimerWheel(long currentTime, long graceMillis) {
+        this.currentTime = currentTime;
+        this.graceMillis = graceMillis;
+        this.wheel = new BufferObject[BUCKETS.length][];
+        for (int level = 0; level < BUCKETS.length; level++) {
+            wheel[level] = new BufferObject[BUCKETS[level]];
+            for (int bucket = 0; bucket < BUCKETS[level]; bucket++) {
+                BufferObject<T> sentinel = new BufferObject<>(0);
+                sentinel.prevTimer = sentinel;
+                sentinel.nextTimer = sentinel;
+                wheel[level][bucket] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Adds a bufferObject to the wheel according to its expiresAt() time and the grace period.
+     *
+     * @param bufferObject an unscheduled bufferObject
+     */
+    void schedule(BufferObject<T> bufferObject) {
+        BufferObject<T> sentinel = findBucket(bufferObject.expiresAt() + graceMillis);
+        bufferObject.prevTimer = sentinel.prevTimer;
+        bufferObject.nextTimer = sentinel;
+        sentinel.prevTimer.nextTimer = bufferObject;
+        sentinel.prevTimer = bufferObject;
+    }
+
+    /**
+     * Moves a scheduled bufferObject to the bucket matching its current expiresAt() time.
+     *
+     * @param bufferObject a scheduled bufferObject
+     */
+    void reschedule(BufferObject<T> bufferObject) {
+        deschedule(bufferObject);
+        schedule(bufferObject);
+    }
+
+    /**
+     * Removes a bufferObject from the wheel.
+     *
+     * @param bufferObject a scheduled bufferObject
+     */
+    void deschedule(BufferObject<T> bufferObject) {
+        bufferObject.prevTimer.nextTimer = bufferObject.nextTimer;
+        bufferObject.nextTimer.prevTimer = bufferObject.prevTimer;
+        bufferObject.prevTimer = null;
+        bufferObject.nextTimer = null;
+    }
+
+    /**
+     * Advances the wheel to {@code time}, handing every bufferObject whose grace period has
+     * ended by {@code time} to {@code onExpired} after descheduling it.
+     * Only the buckets whose span has fully passed are visited, and the objects in them that
+     * are not yet stale cascade down to a finer level, so each object is looked at a bounded
+     * number of times over its lifetime.
+     *
+     * @param time      the current time in milliseconds
+     * @param onExpired called once for each bufferObject past its grace period
+     */
+    void advance(long time, Consumer<BufferObject<T>> onExpired) {
+        long previousTime = currentTime;
+        if (time <= previousTime) {
+            return;
+        }
+        currentTime = time;
+        for (int level = 0; level < SHIFTS.length; level++) {
+            long previousTicks = previousTime >>> SHIFTS[level];
+            long delta = (time >>> SHIFTS[level]) - previousTicks;
+            if (delta <= 0) {
+                break;
+            }
+            expire(level, previousTicks, delta, onExpired);
+        }
+    }
+
+    private void expire(int level, long previousTicks, long delta,
+                        Consumer<BufferObject<T>> onExpired) {
+        BufferObject<T>[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(delta + 1, buckets.length);
+        int start = (int) (previousTicks & mask);
+
+        for (int step = start; step < start + steps; step++) {
+            BufferObject<T> sentinel = buckets[step & mask];
+            BufferObject<T> bufferObject = sentinel.nextTimer;
+            // Detach the whole bucket first, since objects that are not stale yet
+            // may be scheduled right back into it.
+            sentinel.prevTimer = sentinel;
+            sentinel.nextTimer = sentinel;
+
+            while (bufferObject != sentinel) {
+                BufferObject<T> next = bufferObject.nextTimer;
+                bufferObject.prevTimer = null;
+                bufferObject.nextTimer = null;
+                if (bufferObject.isStale(currentTime - graceMillis)) {
+                    onExpired.accept(bufferObject);
+                } else {
+                    schedule(bufferObject);
+                }
+                bufferObject = next;
+            }
+        }
+    }
+
+    private BufferObject<T> findBucket(long removeAt) {
+        // Objects that are already due go into the current bucket, which is visited
+        // on the next advance rather than after a full turn of the wheel.
+        long time = Math.max(removeAt, currentTime);
+        long duration = time - currentTime;
+        int last = BUCKETS.length - 1;
+        for (int level = 0; level < last; level++) {
+            if (duration < (1L << SHIFTS[level + 1])) {
+                long ticks = time >>> SHIFTS[level];
+                return wheel[level][(int) (ticks & (BUCKETS[level] - 1))];
+            }
+        }
+        return wheel[last][0];
+    }
+}
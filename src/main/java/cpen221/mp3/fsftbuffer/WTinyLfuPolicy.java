@@ -0,0 +1,131 @@
+package cpen221.mp3.fsftbuffer;
+
+class WTinyLfuPolicy<T extends Bufferable> implements SegmentPolicy<T> {
+
+    static final int WINDOW = 0;
+    static final int PROBATION = 1;
+    static final int PROTECTED = 2;
+    static final int CANDIDATE = 3;
+
+    /* the share of the weight budget given to the admission window */
+    private static final double WINDOW_SHARE = 0.01;
+
+    /* the share of the main space's weight reserved for objects that have been used more than once */
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final AccessQueue<T> window = new AccessQueue<>();
+    private final AccessQueue<T> probation = new AccessQueue<>();
+    private final AccessQueue<T> protectedQueue = new AccessQueue<>();
+    private final AccessQueue<T> candidates = new AccessQueue<>();
+    private final FrequencySketch sketch;
+    private final long maxWindow;
+    private final long maxMain;
+    private final long maxProtected;
+
+    /* Representation Invariant */
+    // every bufferObject inserted and not yet removed is in exactly one of window,
+    // probation, protectedQueue and candidates, and its queue field names that queue.
+    // window.weight() <= maxWindow, or window holds a single bufferObject, between calls.
+    // protectedQueue.weight() <= maxProtected between calls.
+    // maxWindow >= 1, maxMain >= 0 and maxProtected >= 0.
+
+    /* Abstraction Function */
+    // a WTinyLfuPolicy is a window TinyLFU policy: new objects enter a small LRU window,
+    // and objects pushed out of it join the main segmented LRU space directly while it
+    // has room, or otherwise wait in candidates, oldest first, to be admitted.
+    // A candidate may only displace the main space's next victim if sketch estimates it
+    // is used more often. One-off lookups therefore pass through the window without
+    // pushing popular objects out of the main space.
+
+    /* Thread Safety Argument */
+    // not thread-safe; see SegmentPolicy.
+
+    /**
+     * Creates a window TinyLFU policy.
+     *
+     * @param maximumWeight the weight budget of the segment, {@code maximumWeight} >= 0
+     */
+    WTinyLfuPolicy(long maximumWeight) {
+        this.maxWindow = Math.max(1, (long) (maximumWeight * WINDOW_SHARE));
+        this.maxMain = Math.max(maximumWeight - maxWindow, 0);
+        this.maxProtected = (long) (maxMain * PROTECTED_SHARE);
+        this.sketch = new FrequencySketch(maximumWeight);
+    }
+
+    public void recordInsert(BufferObject<T> bufferObject) {
+        sketch.increment(bufferObject.id());
+        bufferObject.queue = WINDOW;
+        window.linkLast(bufferObject);
+        // Bound the window on every insert, so that each object leaving it is judged
+        // against the main space's victim before that victim is evicted.
+        while (window.weight() > maxWindow && window.size() > 1) {
+            BufferObject<T> leaving = window.peekFirst();
+            window.unlink(leaving);
+            long mainWeight = probation.weight() + protectedQueue.weight() + candidates.weight();
+            if (mainWeight + leaving.weight() <= maxMain) {
+                leaving.queue = PROBATION;
+                probation.linkLast(leaving);
+            } else {
+                leaving.queue = CANDIDATE;
+                candidates.linkLast(leaving);
+            }
+        }
+    }
+
+    public void recordAccess(BufferObject<T> bufferObject) {
+        sketch.increment(bufferObject.id());
+        if (bufferObject.queue == WINDOW) {
+            window.moveToLast(bufferObject);
+        } else if (bufferObject.queue == PROTECTED) {
+            protectedQueue.moveToLast(bufferObject);
+        } else {
+            (bufferObject.queue == CANDIDATE ? candidates : probation).unlink(bufferObject);
+            bufferObject.queue = PROTECTED;
+            protectedQueue.linkLast(bufferObject);
+            while (protectedQueue.weight() > maxProtected) {
+                BufferObject<T> demoted = protectedQueue.peekFirst();
+                protectedQueue.unlink(demoted);
+                demoted.queue = PROBATION;
+                probation.linkLast(demoted);
+            }
+        }
+    }
+
+    public void recordMiss(String id) {
+        sketch.increment(id);
+    }
+
+    public void recordRemoval(BufferObject<T> bufferObject) {
+        if (bufferObject.queue == WINDOW) {
+            window.unlink(bufferObject);
+        } else if (bufferObject.queue == PROTECTED) {
+            protectedQueue.unlink(bufferObject);
+        } else if (bufferObject.queue == CANDIDATE) {
+            candidates.unlink(bufferObject);
+        } else {
+            probation.unlink(bufferObject);
+        }
+    }
+
+    public BufferObject<T> victim() {
+        BufferObject<T> candidate = candidates.peekFirst();
+        BufferObject<T> victim = probation.peekFirst();
+        if (victim == null) {
+            victim = protectedQueue.peekFirst();
+        }
+        if (candidate == null) {
+            return victim != null ? victim : window.peekFirst();
+        }
+        if (victim == null) {
+            return candidate;
+        }
+        // Admit the candidate only if it is used more often than the object it would replace.
+        if (sketch.frequency(candidate.id()) > sketch.frequency(victim.id())) {
+            candidates.unlink(candidate);
+            candidate.queue = PROBATION;
+            probation.linkLast(candidate);
+            return victim;
+        }
+        return candidate;
+    }
+}
@@ -0,0 +1,20 @@
+package cpen221.mp3.fsftbuffer;
+
+/**
+ * Computes how much of a buffer's weight budget an object uses,
+ * for buffers bounded by total weight rather than by number of objects.
+ *
+ * @param <T> the type of object held by the buffer
+ */
+public interface Weigher<T extends Bufferable> {
+
+    /**
+     * Computes the weight of an object. It is called once when the object is
+     * added to a buffer and once whenever it replaces another object through update,
+     * so it should not depend on state that changes while the object is buffered.
+     *
+     * @param t a non-null object
+     * @return the weight of {@code t}, {@code >= 0}
+     */
+    int weigh(T t);
+}
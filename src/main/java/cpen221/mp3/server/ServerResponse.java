@@ -1,12 +1,14 @@
 package cpen221.mp3.server;
 
 import java.util.List;
+import java.util.Map;
 
 public class ServerResponse {
     String id;
     String status;
     String response;
     List<String> responses;
+    Map<String, Number> stats;
 
     /* Representation Invariant */
     // All fields except id can possibly be null.
@@ -33,4 +35,8 @@ public class ServerResponse {
     public void setResponses(List<String> responses) {
         this.responses = responses;
     }
+
+    public void setStats(Map<String, Number> stats) {
+        this.stats = stats;
+    }
 }
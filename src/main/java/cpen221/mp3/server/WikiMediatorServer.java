@@ -1,6 +1,7 @@
 package cpen221.mp3.server;
 
 import com.google.gson.Gson;
+import cpen221.mp3.fsftbuffer.CacheStats;
 import cpen221.mp3.wikimediator.WikiMediator;
 
 import java.io.BufferedReader;
@@ -8,16 +9,21 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -28,14 +34,15 @@ public class WikiMediatorServer {
 
     private ServerSocket serverSocket;
     private WikiMediator mediator;
-    private ExecutorService requestHandler;
+    private Semaphore inFlight;
 
-    private boolean running;
+    private volatile boolean running;
 
     /* Representation Invariants */
     // serverSocket is never null
     // mediator is never null
-    // requestHandler is never null and will have a fixed pool of given size
+    // inFlight is never null and has one permit for each of the n requests
+    // that can be in progress at once, less the requests in progress
 
     /* Abstraction Function */
     // represents a server that that listens to requests made from
@@ -52,7 +59,7 @@ public class WikiMediatorServer {
         try {
             this.serverSocket = new ServerSocket(port);
             this.mediator = wikiMediator;
-            this.requestHandler = Executors.newFixedThreadPool(n);
+            this.inFlight = new Semaphore(n);
             running = true;
         } catch (Exception ioe) {
             System.out.println(ioe.getLocalizedMessage());
@@ -95,11 +102,17 @@ public class WikiMediatorServer {
             }
         }
         System.out.println("Shutting down");
-        requestHandler.shutdown();
+        try {
+            mediator.saveCacheSnapshot();
+        } catch (UncheckedIOException uioe) {
+            System.out.println(uioe.getLocalizedMessage());
+        }
     }
 
     /**
-     * Handles the socket by creating multiple threads and creates a ServerResponse
+     * Handles the socket, starting each request as it is read and writing each
+     * ServerResponse as soon as it is ready, so responses may come back out of order.
+     * Once n requests are in progress across all clients, reading waits for one to finish.
      *
      * @param socket is non-null
      * @throws IOException if socket fails to be handled
@@ -109,78 +122,89 @@ public class WikiMediatorServer {
 
         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
         PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
+        Gson gson = new Gson();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
 
         for (String line = in.readLine(); line != null; line = in.readLine()) {
-            Gson gson = new Gson();
             ServerRequest request = gson.fromJson(line, ServerRequest.class);
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException ie) {
+                break;
+            }
 
-            // Requests are all handled by threads in the server's thread pool (of size n).
-            final Runnable serverResponseGenerator = new Thread(() -> {
-                ServerResponse response = generateResponse(request);
+            // Requests wait on Wikipedia in the mediator's executor, not in a thread of their own.
+            CompletableFuture<Void> written = generateResponse(request).thenAccept(response -> {
                 String output = gson.toJson(response);
-
-                out.println(output);
-                out.flush();
+                synchronized (out) {
+                    out.println(output);
+                    out.flush();
+                }
 
                 if (Objects.equals(request.type, "stop")) {
                     running = false;
                 }
-            });
-            requestHandler.execute(serverResponseGenerator);
+            }).whenComplete((ignored, thrown) -> inFlight.release());
+            pending.removeIf(CompletableFuture::isDone);
+            pending.add(written);
         }
+        // Let requests still in progress write their responses before the socket closes.
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
         out.close();
         in.close();
     }
 
     /**
      * Generates a formatted ServerResponse from the ServerRequest.
-     * Takes into account whether the request timeout is null or not.
+     * If the request has a timeout, a request that has not finished in time fails with
+     * "Operation timed out", and is dropped without running if it has not started.
      *
      * @param request a non-null ServerRequest
-     * @return a non-null ServerResponse
+     * @return a future completed with a non-null ServerResponse, never exceptionally
      */
-    private ServerResponse generateResponse(ServerRequest request) {
-        String status;
-
-        final ExecutorService responseRetrieval = Executors.newSingleThreadExecutor();
-        CountDownLatch latch = new CountDownLatch(1);
-
-        MediatorClient mediatorClient = new MediatorClient(mediator, request, latch);
-
-        if (request.timeout == null) {
-            responseRetrieval.submit(mediatorClient);
-            responseRetrieval.shutdown();
-            try {
-                latch.await();
-                status = "success";
-            } catch (InterruptedException ie) {
-                status = "failed";
-                mediatorClient.response = ie.getLocalizedMessage();
-            }
-
-        } else {
-            final Future<?> future = responseRetrieval.submit(mediatorClient);
-            responseRetrieval.shutdown();
-            try {
-                future.get(Integer.parseInt(request.timeout), TimeUnit.SECONDS);
-                status = "success";
-            } catch (InterruptedException ie) {
-                status = "failed";
-                mediatorClient.response = "Interrupted Exception was thrown";
-
-            } catch (ExecutionException ee) {
-                status = "failed";
-                mediatorClient.response = ee.getLocalizedMessage();
-
-            } catch (TimeoutException te) {
+    private CompletableFuture<ServerResponse> generateResponse(ServerRequest request) {
+        MediatorClient mediatorClient = new MediatorClient(mediator, request);
+
+        return mediatorClient.start().handle((ignored, thrown) -> {
+            String status = "success";
+            if (thrown != null) {
+                Throwable cause = thrown instanceof CompletionException
+                    && thrown.getCause() != null ? thrown.getCause() : thrown;
                 status = "failed";
-                mediatorClient.response = "Operation timed out";
+                mediatorClient.response = cause instanceof TimeoutException
+                    ? "Operation timed out" : cause.getLocalizedMessage();
             }
-            if (!responseRetrieval.isTerminated()) {
-                responseRetrieval.shutdownNow();
+            ServerResponse response = formatResponse(request, status, mediatorClient.response,
+                mediatorClient.responses);
+            if (mediatorClient.stats != null) {
+                response.setStats(formatStats(mediatorClient.stats));
             }
-        }
-        return formatResponse(request, status, mediatorClient.response, mediatorClient.responses);
+            return response;
+        });
+    }
+
+    /**
+     * Lays out cache counters for a "stats" response, with the hit ratio and the miss
+     * filter's false positive rate computed so that monitoring does not have to.
+     *
+     * @param stats a non-null snapshot of the mediator's cache counters
+     * @return the counters by name, in a fixed order
+     */
+    private static Map<String, Number> formatStats(CacheStats stats) {
+        Map<String, Number> formatted = new LinkedHashMap<>();
+        formatted.put("hitCount", stats.hitCount());
+        formatted.put("missCount", stats.missCount());
+        formatted.put("hitRate", stats.hitRate());
+        formatted.put("loadSuccessCount", stats.loadSuccessCount());
+        formatted.put("loadFailureCount", stats.loadFailureCount());
+        formatted.put("averageLoadPenaltyMillis", stats.averageLoadPenalty() / 1_000_000);
+        formatted.put("evictionCount", stats.evictionCount());
+        formatted.put("evictionWeight", stats.evictionWeight());
+        formatted.put("expiredCount", stats.expiredCount());
+        formatted.put("filteredMissCount", stats.filteredMissCount());
+        formatted.put("filterFalsePositiveCount", stats.filterFalsePositiveCount());
+        formatted.put("filterFalsePositiveRate", stats.filterFalsePositiveRate());
+        return formatted;
     }
 
     /**
@@ -230,78 +254,101 @@ public class WikiMediatorServer {
         }
     }
 
-    private static class MediatorClient implements Runnable {
+    private static class MediatorClient {
         public String response;
         public List<String> responses;
+        public CacheStats stats;
 
         private final WikiMediator mediator;
         private final ServerRequest request;
-        private final CountDownLatch latch;
 
         /* Representation Invariants */
         // response: a string that is non-null
         // responses: a list of string that is non-null
+        // stats: the cache counters for a stats request, null otherwise
         // mediator is non-null
         // request is non-null
-        // latch is non-null
 
         /* Abstraction Function */
-        // represents a mediator client that run as a thread to responds to a ServerRequest
-        // depending on it's corresponding fields.
+        // represents a mediator client that starts the mediator request a ServerRequest asks for,
+        // and fills in its response fields once that request completes.
 
         /**
          * Constructor for the MediatorClient
          *
          * @param mediator a non-null WikiMediator
          * @param request  a non-null ServerRequest
-         * @param latch    a non-null CountDownLatch
          */
-        public MediatorClient(WikiMediator mediator, ServerRequest request, CountDownLatch latch) {
+        public MediatorClient(WikiMediator mediator, ServerRequest request) {
             this.mediator = mediator;
             this.request = request;
-            this.latch = latch;
         }
 
         /**
-         * Run method for a MediatorClient thread
+         * Starts the mediator request, without waiting for it.
+         *
+         * @return a future completed once the response fields are filled in, or exceptionally
+         * with the reason the request failed, such as a TimeoutException
          */
-        public void run() {
-            if (Objects.equals(request.type, "search")) {
-                responses = new ArrayList<>(
-                    mediator.search(request.query, Integer.parseInt(request.limit)));
-
-            } else if (Objects.equals(request.type, "getPage")) {
-                response = mediator.getPage(request.pageTitle);
-
-            } else if (Objects.equals(request.type, "zeitgeist")) {
-                responses = new ArrayList<>(mediator.zeitgeist(Integer.parseInt(request.limit)));
-
-            } else if (Objects.equals(request.type, "trending")) {
-                responses =
-                    new ArrayList<>(mediator.trending(Integer.parseInt(request.timeLimitInSeconds),
-                        Integer.parseInt(request.maxItems)));
-
-            } else if (Objects.equals(request.type, "windowedPeakLoad")) {
-                if (request.timeWindowInSeconds != null) {
-                    response = String.valueOf(
-                        mediator.windowedPeakLoad(Integer.parseInt(request.timeWindowInSeconds)));
+        public CompletableFuture<Void> start() {
+            try {
+                if (Objects.equals(request.type, "search")) {
+                    return bounded(mediator.searchAsync(request.query,
+                        Integer.parseInt(request.limit)))
+                        .thenAccept(titles -> responses = new ArrayList<>(titles));
+
+                } else if (Objects.equals(request.type, "getPage")) {
+                    return bounded(mediator.getPageAsync(request.pageTitle))
+                        .thenAccept(text -> response = text);
+
+                } else if (Objects.equals(request.type, "zeitgeist")) {
+                    return bounded(mediator.zeitgeistAsync(Integer.parseInt(request.limit)))
+                        .thenAccept(queries -> responses = new ArrayList<>(queries));
+
+                } else if (Objects.equals(request.type, "trending")) {
+                    return bounded(mediator.trendingAsync(
+                        Integer.parseInt(request.timeLimitInSeconds),
+                        Integer.parseInt(request.maxItems)))
+                        .thenAccept(queries -> responses = new ArrayList<>(queries));
+
+                } else if (Objects.equals(request.type, "windowedPeakLoad")) {
+                    CompletableFuture<Integer> peakLoad = request.timeWindowInSeconds != null
+                        ? mediator.windowedPeakLoadAsync(
+                        Integer.parseInt(request.timeWindowInSeconds))
+                        : mediator.windowedPeakLoadAsync();
+                    return bounded(peakLoad).thenAccept(load -> response = String.valueOf(load));
+
+                } else if (Objects.equals(request.type, "shortestPath")) {
+                    return bounded(mediator.shortestPathAsync(request.pageTitle1,
+                        request.pageTitle2, Integer.parseInt(request.timeout)))
+                        .thenAccept(path -> responses = new ArrayList<>(path));
+
+                } else if (Objects.equals(request.type, "stats")) {
+                    stats = mediator.cacheStats();
+                } else if (Objects.equals(request.type, "stop")) {
+                    response = "bye";
                 } else {
-                    response = String.valueOf(mediator.windowedPeakLoad());
+                    response = "Malformed request";
                 }
-            } else if (Objects.equals(request.type, "shortestPath")) {
-                try {
-                    responses = new ArrayList<>(
-                        mediator.shortestPath(request.pageTitle1, request.pageTitle2,
-                            Integer.parseInt(request.timeout)));
-                } catch (TimeoutException e) {
-                    response = e.getLocalizedMessage();
-                }
-            } else if (Objects.equals(request.type, "stop")) {
-                response = "bye";
-            } else {
-                response = "Malformed request";
+                return CompletableFuture.completedFuture(null);
+            } catch (RuntimeException re) {
+                return CompletableFuture.failedFuture(re);
+            }
+        }
+
+        /**
+         * Applies the request's timeout, if it has one, to the mediator's future itself,
+         * so that a request that times out before it starts never runs.
+         *
+         * @param future the future returned by the mediator, non-null
+         * @param <R>    the type of the mediator's result
+         * @return {@code future}, completed with a TimeoutException if it is not done in time
+         */
+        private <R> CompletableFuture<R> bounded(CompletableFuture<R> future) {
+            if (request.timeout == null) {
+                return future;
             }
-            latch.countDown();
+            return future.orTimeout(Integer.parseInt(request.timeout), TimeUnit.SECONDS);
         }
     }
 
@@ -0,0 +1,245 @@
+package cpen221.mp3.wikimediator;
+
+import cpen221.mp3.fsftbuffer.Bufferable;
+import cpen221.mp3.fsftbuffer.Eviction;
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.fsftbuffer.Ticker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+class LinkGraph {
+
+    /* the number of independently locked segments of each adjacency cache, since
+     * a path search reads links from many threads at once */
+    private static final int SEGMENTS = 16;
+
+    private final WikiSource wiki;
+    private final FSFTBuffer<Adjacency> forward;
+    private final FSFTBuffer<Adjacency> backward;
+    private final int maximumTitles;
+    private TitleTable titles;
+
+    /* Representation Invariant */
+    // wiki, forward, backward and titles are non-null, and maximumTitles is positive.
+    // titles holds at most maximumTitles titles, unless it holds those of a single
+    // adjacency list longer than that.
+    // every id in the links of an Adjacency is an id given out by its table.
+
+    /* Abstraction Function */
+    // a LinkGraph is the part of Wikipedia's link graph recently read through it:
+    // forward maps a title to the titles its page links to, and backward maps a title to
+    // the titles of the pages linking to it, each as Wikipedia returned them.
+    // Titles are stored once per TitleTable, and adjacency lists as arrays of their ids
+    // in the table they were fetched with, which take four bytes per link instead of a
+    // reference to a String per link.
+    // titles is the table new adjacency lists are added to. Once it is full, a new table
+    // is started; an older table is only kept alive by the cached adjacency lists using
+    // it, so it is reclaimed by the garbage collector once the caches have turned over.
+
+    /* Thread Safety Argument */
+    // forward and backward are FSFTBuffers, which are thread-safe, and whose loaders
+    // make concurrent misses on the same title share one request to Wikipedia.
+    // titles is only read or written in the synchronized method adjacency, which is
+    // the only caller of TitleTable.intern.
+    // A TitleTable publishes its titles through a volatile array, and Adjacency objects
+    // are immutable once created, so cache hits map ids back to titles from any thread
+    // without taking a lock.
+
+    /**
+     * Creates an empty link graph.
+     *
+     * @param wiki         fetches links on a miss, non-null
+     * @param maximumLinks the number of links each of the forward and backward caches can
+     *                     hold, and the number of distinct titles a table holds before
+     *                     a new one is started, a positive integer
+     * @param timeout      the number of seconds after which a cached adjacency list is
+     *                     stale, a positive integer
+     * @param ticker       the source of the current time, non-null
+     */
+    LinkGraph(WikiSource wiki, int maximumLinks, int timeout, Ticker ticker) {
+        this.wiki = wiki;
+        this.forward = adjacencyCache(maximumLinks, timeout, ticker);
+        this.backward = adjacencyCache(maximumLinks, timeout, ticker);
+        this.maximumTitles = maximumLinks;
+        this.titles = new TitleTable();
+    }
+
+    /**
+     * @param maximumLinks the number of links the cache can hold
+     * @param timeout      the number of seconds after which a cached adjacency list is stale
+     * @param ticker       the source of the current time
+     * @return an empty cache of adjacency lists, weighed by their number of links
+     */
+    private static FSFTBuffer<Adjacency> adjacencyCache(int maximumLinks, int timeout,
+                                                        Ticker ticker) {
+        return new FSFTBuffer.Builder<Adjacency>()
+            .withMaximumWeight(maximumLinks, adjacency -> adjacency.links.length + 1)
+            .withTimeout(timeout)
+            .withSegments(SEGMENTS)
+            .withEvictionPolicy(Eviction.W_TINY_LFU)
+            .withTicker(ticker)
+            .build();
+    }
+
+    /**
+     * @param pageTitle a non-null title
+     * @return the titles the page links to, as wiki.getLinksOnPage returns them
+     */
+    List<String> linksOnPage(String pageTitle) {
+        return links(forward, pageTitle, wiki::getLinksOnPage);
+    }
+
+    /**
+     * @param pageTitle a non-null title
+     * @return the titles of the pages linking to the page, as wiki.whatLinksHere
+     * returns them
+     */
+    List<String> whatLinksHere(String pageTitle) {
+        return links(backward, pageTitle, wiki::whatLinksHere);
+    }
+
+    /**
+     * Reads an adjacency list through a cache, fetching it on a miss.
+     * Empty lists are not cached, since Wikipedia also returns nothing when it cannot
+     * be reached.
+     *
+     * @param cache     the cache of adjacency lists to read through
+     * @param pageTitle a non-null title
+     * @param fetch     asks Wikipedia for the adjacency list of a title
+     * @return the titles adjacent to {@code pageTitle}, as a new list
+     */
+    private List<String> links(FSFTBuffer<Adjacency> cache, String pageTitle,
+                               Function<String, List<String>> fetch) {
+        Adjacency adjacency = cache.get(pageTitle, title -> {
+            List<String> titles = fetch.apply(title);
+            return titles == null || titles.isEmpty() ? null : adjacency(title, titles);
+        });
+        return adjacency == null ? new ArrayList<>() : adjacency.titles();
+    }
+
+    /**
+     * Encodes an adjacency list in the current table, starting a new table if it would
+     * not fit in the current one.
+     *
+     * @param pageTitle the title of the page, non-null
+     * @param links     the titles adjacent to the page, non-null
+     * @return the adjacency list, holding the ids of {@code links}
+     */
+    private synchronized Adjacency adjacency(String pageTitle, List<String> links) {
+        if (!titles.canIntern(links.size(), maximumTitles)) {
+            titles = new TitleTable();
+        }
+        return new Adjacency(pageTitle, titles, titles.intern(links));
+    }
+
+    private static class TitleTable {
+
+        /* the number of titles a table first has room for */
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final HashMap<String, Integer> idsByTitle = new HashMap<>();
+        private volatile String[] titlesById = new String[INITIAL_CAPACITY];
+
+        /* Representation Invariant */
+        // idsByTitle and titlesById are inverses: idsByTitle.get(titlesById[id]) == id
+        // for every id from 0 to idsByTitle.size() - 1, and titlesById[id] is null for
+        // every other id.
+
+        /* Abstraction Function */
+        // a TitleTable numbers titles in the order they were first interned, from 0.
+
+        /* Thread Safety Argument */
+        // canIntern and intern are only called by one thread at a time, under the lock of
+        // the LinkGraph owning the table. intern writes the titles it adds before
+        // publishing titlesById with a volatile write, even when the array did not grow,
+        // so any thread that reads titlesById after being handed an id sees its title.
+
+        /**
+         * @param titles        the number of titles to intern
+         * @param maximumTitles the number of titles the table should hold at most
+         * @return true if the table is empty, or has room for {@code titles} more titles
+         */
+        boolean canIntern(int titles, int maximumTitles) {
+            return idsByTitle.isEmpty() || idsByTitle.size() + titles <= maximumTitles;
+        }
+
+        /**
+         * @param titles non-null titles
+         * @return the id of each title, in order, giving new ids to titles not seen before
+         */
+        int[] intern(List<String> titles) {
+            String[] table = titlesById;
+            int[] ids = new int[titles.size()];
+            for (int i = 0; i < ids.length; i++) {
+                String title = titles.get(i);
+                Integer id = idsByTitle.get(title);
+                if (id == null) {
+                    id = idsByTitle.size();
+                    if (id == table.length) {
+                        table = Arrays.copyOf(table, 2 * table.length);
+                    }
+                    table[id] = title;
+                    idsByTitle.put(title, id);
+                }
+                ids[i] = id;
+            }
+            titlesById = table;
+            return ids;
+        }
+
+        /**
+         * May be called from any thread, without holding a lock.
+         *
+         * @param id an id given out by intern
+         * @return the title with that id
+         */
+        String title(int id) {
+            return titlesById[id];
+        }
+    }
+
+    private static class Adjacency implements Bufferable {
+        private final String title;
+        private final TitleTable table;
+        private final int[] links;
+
+        /* Representation Invariant */
+        // title, table and links are non-null, links is never modified, and every id in
+        // links was given out by table
+
+        /* Abstraction Function */
+        // represents the pages adjacent to the page titled title, in the order Wikipedia
+        // listed them, each by its id in table
+
+        /**
+         * @param title the title of the page, non-null
+         * @param table the table that gave out the ids in links, non-null
+         * @param links the ids of the adjacent titles, non-null and not modified afterwards
+         */
+        Adjacency(String title, TitleTable table, int[] links) {
+            this.title = title;
+            this.table = table;
+            this.links = links;
+        }
+
+        /**
+         * @return the titles of the adjacent pages, in order, as a new list
+         */
+        List<String> titles() {
+            List<String> titles = new ArrayList<>(links.length);
+            for (int id : links) {
+                titles.add(table.title(id));
+            }
+            return titles;
+        }
+
+        @Override
+        public String id() {
+            return title;
+        }
+    }
+}
@@ -1,14 +1,12 @@
 package cpen221.mp3.wikimediator;
 
-import org.fastily.jwiki.core.Wiki;
-
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 public class PathThread extends Thread {
 
-    private final Wiki wiki;
+    private final LinkGraph links;
     private final String pageTitle1;
     private final String pageTitle2;
     private final long beginTime;
@@ -19,7 +17,7 @@ public class PathThread extends Thread {
     public ArrayList<List<String>> output = new ArrayList<>();
 
     /* Representation Invariant */
-    // wiki is non-null
+    // links is non-null
     // pageTitle1 is a non-null string
     // pageTitle2 is a non-null string
     // beginTime is a positive, long data type
@@ -40,7 +38,7 @@ public class PathThread extends Thread {
     /**
      * Constructor for the pathThread object
      *
-     * @param wiki            is non-null
+     * @param links           reads the links on each page, non-null
      * @param pageTitle1      a non-null string
      * @param pageTitle2      a non-null string
      * @param beginTime       a positive, long data type
@@ -49,14 +47,14 @@ public class PathThread extends Thread {
      * @param depth           a mutable list of integers with exactly two values
      * @param currentDepth    positive, non-null integer
      */
-    PathThread(Wiki wiki, String pageTitle1, String pageTitle2, long beginTime, long timeout,
+    PathThread(LinkGraph links, String pageTitle1, String pageTitle2, long beginTime, long timeout,
                List<String> backwardsTitles, List<Integer> depth, int currentDepth) {
         if (beginTime + timeout < System.currentTimeMillis()) {
             synchronized (depth) {
                 depth.set(1, 1);
             }
         }
-        this.wiki = wiki;
+        this.links = links;
         this.pageTitle1 = pageTitle1;
         this.pageTitle2 = pageTitle2;
         this.beginTime = beginTime;
@@ -71,7 +69,7 @@ public class PathThread extends Thread {
      */
     public void run() {
         if (depth.get(1) == 0 && (depth.get(0) == 0 || currentDepth <= depth.get(0))) {
-            List<String> forwardTitles = wiki.getLinksOnPage(pageTitle1);
+            List<String> forwardTitles = links.linksOnPage(pageTitle1);
 
             ArrayList<PathThread> threads = new ArrayList<>();
 
@@ -84,7 +82,7 @@ public class PathThread extends Thread {
                     output.add(Arrays.asList(pageTitle1, page, pageTitle2));
                     break;
                 } else {
-                    PathThread branchThread = new PathThread(wiki, page, pageTitle2,
+                    PathThread branchThread = new PathThread(links, page, pageTitle2,
                         beginTime, timeout, backwardsTitles, depth, currentDepth + 1);
                     branchThread.start();
                     threads.add(branchThread);
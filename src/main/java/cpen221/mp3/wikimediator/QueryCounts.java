@@ -0,0 +1,57 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+class QueryCounts {
+    private final HashMap<String, Integer> counts = new HashMap<>();
+    private final TreeSet<String> byCount = new TreeSet<>(
+        Comparator.comparing((String query) -> counts.get(query)).reversed()
+            .thenComparing(Comparator.naturalOrder()));
+
+    /* Representation Invariant */
+    // every count in counts is positive.
+    // byCount holds exactly the keys of counts, ordered by their count in counts,
+    // highest first, and alphabetically among equal counts.
+
+    /* Abstraction Function */
+    // a QueryCounts is the multiset of queries added to it: counts.get(q) is the number
+    // of times q was added, and byCount lists the distinct queries from most to least added.
+
+    /* Thread Safety Argument */
+    // A QueryCounts is not thread-safe: its owner must only call it while holding one lock.
+
+    /**
+     * Counts one more occurrence of a query.
+     * Takes time logarithmic in the number of distinct queries, not in the number added.
+     *
+     * @param query a non-null query
+     */
+    void add(String query) {
+        // byCount orders by counts, so a query must leave it before its count changes.
+        if (counts.containsKey(query)) {
+            byCount.remove(query);
+        }
+        counts.merge(query, 1, Integer::sum);
+        byCount.add(query);
+    }
+
+    /**
+     * @param limit the maximum number of queries to return
+     * @return the at most {@code limit} queries added most often, from most to least added,
+     * and alphabetically among queries added equally often
+     */
+    List<String> top(int limit) {
+        List<String> queries = new ArrayList<>();
+        for (String query : byCount) {
+            if (queries.size() >= limit) {
+                break;
+            }
+            queries.add(query);
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,83 @@
+package cpen221.mp3.wikimediator;
+
+import cpen221.mp3.fsftbuffer.Bufferable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class SearchResult implements Bufferable {
+
+    private final String id;
+    private final int limit;
+    private final List<String> titles;
+
+    /* Representation Invariant */
+    // id is non-null, and equal to key(id)
+    // titles is a non-null, unmodifiable list of non-null titles
+    // titles.size() <= limit
+
+    /* Abstraction Function */
+    // represents the answer to a search for the query id with the given limit:
+    // the first titles.size() page titles Wikipedia's search service matched, in order.
+    // If titles.size() < limit, the search service had no more titles to give,
+    // so titles is the answer for any larger limit too.
+
+    /**
+     * Constructor for a SearchResult
+     *
+     * @param query  the query searched for, non-null
+     * @param limit  the maximum number of titles asked for, a positive integer
+     * @param titles the titles the search returned, at most {@code limit} of them, non-null
+     */
+    public SearchResult(String query, int limit, List<String> titles) {
+        this.id = key(query);
+        this.limit = limit;
+        this.titles = List.copyOf(titles);
+    }
+
+    /**
+     * Normalizes a query, so that queries differing only in case or in spacing,
+     * which Wikipedia's search service answers alike, share one cached result.
+     *
+     * @param query a non-null query
+     * @return {@code query} in lower case, trimmed, with runs of whitespace made one space
+     */
+    public static String key(String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param limit the maximum number of titles asked for
+     * @return true if the first {@code limit} titles of this result are what a search with
+     * {@code limit} would return: either {@code limit} is no larger than the limit this
+     * result was searched with, or the search ran out of titles before reaching it
+     */
+    public boolean answers(int limit) {
+        return limit <= this.limit || titles.size() < this.limit;
+    }
+
+    /**
+     * @param other a non-null result for the same query
+     * @return true if this result answers every limit {@code other} answers
+     */
+    public boolean covers(SearchResult other) {
+        return answers(other.limit);
+    }
+
+    /**
+     * @param limit the maximum number of titles to return
+     * @return the first {@code limit} titles of this result, or all of them if there
+     * are fewer, as a new list
+     */
+    public List<String> first(int limit) {
+        return new ArrayList<>(titles.subList(0, Math.max(Math.min(limit, titles.size()), 0)));
+    }
+
+    /**
+     * @return the normalized query this result answers
+     */
+    public String id() {
+        return this.id;
+    }
+}
@@ -1,18 +1,31 @@
 package cpen221.mp3.wikimediator;
 
+import cpen221.mp3.fsftbuffer.CacheStats;
+import cpen221.mp3.fsftbuffer.Eviction;
 import cpen221.mp3.fsftbuffer.FSFTBuffer;
-import org.fastily.jwiki.core.Wiki;
+import cpen221.mp3.fsftbuffer.Ticker;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 public class WikiMediator {
 
@@ -20,10 +33,47 @@ public class WikiMediator {
     private static final int DEFAULT_LOAD_WINDOW = 30;
     private static final int LOCK_INDEX = 0;
     private static final String FILEPATH = "local/request_data";
+    private static final Eviction DEFAULT_EVICTION = Eviction.W_TINY_LFU;
+    private static final int NO_COMPRESSION = -1;
+    private static final int IO_THREADS = 8;
+    private static final int DEFAULT_NEGATIVE_STALENESS = 60;
+    private static final int MAX_ABSENT_TITLES = 10_000;
+    private static final int DEFAULT_CURRENT_EVENT_STALENESS = 300;
+    private static final int DEFAULT_SEARCH_CAPACITY = 256;
+    private static final int DEFAULT_LINK_CAPACITY = 1_000_000;
 
-    private final Wiki wiki;
+    /* a rough size of a page's wiki markup, for sizing the miss filter of a cache
+     * bounded by bytes */
+    private static final int TYPICAL_PAGE_BYTES = 16_384;
+
+    /* the maintenance templates Wikipedia places on articles about events still unfolding,
+     * whose text changes far more often than that of other articles. The name must end
+     * where the template or its first parameter does, so that templates such as
+     * {{Current Formula One drivers}} do not match */
+    private static final Pattern CURRENT_EVENT = Pattern.compile(
+        "\\{\\{\\s*(current|recent death|ongoing)\\s*[|}]", Pattern.CASE_INSENSITIVE);
+
+    /* runs the Wikipedia calls of async requests and page refreshes for every mediator
+     * not given its own executor */
+    private static final ExecutorService IO_EXECUTOR =
+        Executors.newFixedThreadPool(IO_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "WikiMediator-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private final WikiSource wiki;
+    private final String requestLog;
     private final FSFTBuffer<WikiPage> wikiBuffer;
+    private final FSFTBuffer<SearchResult> searchBuffer;
+    private final Object searchLock = new Object();
+    private final LinkGraph linkGraph;
     private final List<Request> requests;
+    private final QueryCounts queryCounts = new QueryCounts();
+    private final int compressionLevel;
+    private final Ticker ticker;
+    private final Executor ioExecutor;
+    private final boolean snapshots;
 
     /* Thread Safety Argument */
     // WikiMediator stores requests in a local list named requests, and caches pages in
@@ -36,24 +86,116 @@ public class WikiMediator {
     // it has the lock, and since the list can only be modified by adding to it,
     // the method will always be iterating over an unchanging section of that list.
     // This ensures that concurrent operations happen without affecting each other.
+    // queryCounts is only read or updated while holding the same lock, in the same
+    // critical section that adds the request it counts.
+    // Cached search results are only replaced while holding searchLock, so that
+    // comparing the cached result with its replacement and replacing it happen together.
+    // The async methods log their request in the calling thread, like the blocking ones,
+    // and only hand the Wikipedia calls, or trending's and windowedPeakLoad's counting,
+    // over to the I/O executor. zeitgeistAsync answers in the calling thread.
 
     /* Representation Invariants */
     // wiki is non-null
+    // requestLog is a non-null path
     // wikiBuffer is non-null
+    // searchBuffer is non-null, and holds results keyed by SearchResult.key of their query
+    // searchLock is non-null
+    // linkGraph is non-null
     // requests is a non-null list
+    // queryCounts holds the query of each SEARCH and GET_PAGE request in requests, once
+    // compressionLevel is NO_COMPRESSION or a Deflater level from 1 to 9
+    // ticker is non-null
+    // ioExecutor is non-null
+    // snapshots is true exactly when wikiBuffer was built with a snapshot file
 
     /* Abstraction Functions */
     // a WikiMediator is a FSFT buffer that holds wiki pages and a list of request objects
+    // searchBuffer holds the results of recent searches, each of which also answers
+    // searches for the same query with a smaller limit
+    // linkGraph holds the links on and to recently visited pages, for shortestPath
+    // queryCounts counts how often each query was searched for or requested as a page,
+    // over the whole request history, for zeitgeist
 
     /**
-     * Constructor for the WikiMediator
+     * Constructor for the WikiMediator.
+     * Pages are cached with the window TinyLFU policy, so that titles requested only once
+     * do not push frequently requested pages out of the cache.
      *
      * @param capacity          a positive integer
      * @param stalenessInterval a positive integer
      */
     public WikiMediator(int capacity, int stalenessInterval) {
-        this.wiki = new Wiki.Builder().withDomain("en.wikipedia.org").build();
-        this.wikiBuffer = new FSFTBuffer<>(capacity, stalenessInterval);
+        this(new Builder().withCapacity(capacity).withStalenessInterval(stalenessInterval));
+    }
+
+    /**
+     * Constructor for the WikiMediator with a chosen cache eviction policy.
+     *
+     * @param capacity          a positive integer
+     * @param stalenessInterval a positive integer
+     * @param eviction          the policy deciding which page leaves a full cache, non-null
+     */
+    public WikiMediator(int capacity, int stalenessInterval, Eviction eviction) {
+        this(new Builder().withCapacity(capacity).withStalenessInterval(stalenessInterval)
+            .withEvictionPolicy(eviction));
+    }
+
+    private WikiMediator(Builder builder) {
+        this.wiki = builder.wikiSource == null ? WikiSource.wikipedia() : builder.wikiSource;
+        this.requestLog = builder.requestLog;
+        this.compressionLevel = builder.compressionLevel;
+        this.ticker = builder.ticker;
+        this.ioExecutor = builder.executor;
+        this.snapshots = builder.cacheSnapshotFile != null;
+
+        int stableStaleness = builder.stalenessInterval;
+        int currentEventStaleness = builder.currentEventStalenessInterval == null
+            ? Math.min(DEFAULT_CURRENT_EVENT_STALENESS, stableStaleness)
+            : builder.currentEventStalenessInterval;
+        FSFTBuffer.Builder<WikiPage> bufferBuilder = new FSFTBuffer.Builder<WikiPage>()
+            .withTimeout(stableStaleness)
+            .withExpiry(page -> page.isCurrentEvent()
+                ? currentEventStaleness : stableStaleness)
+            .withTicker(ticker)
+            .withEvictionPolicy(builder.eviction);
+        // Most getPage traffic is for long-tail titles that are not cached, so let a
+        // filter answer those misses without locking.
+        if (builder.maximumCacheBytes > 0) {
+            bufferBuilder.withMaximumWeight(builder.maximumCacheBytes, WikiPage.UTF8_WEIGHER)
+                .withMissFilter((int) Math.min(Integer.MAX_VALUE,
+                    builder.maximumCacheBytes / TYPICAL_PAGE_BYTES + 1));
+        } else {
+            bufferBuilder.withCapacity(builder.capacity)
+                .withMissFilter(Math.max(builder.capacity, 1));
+        }
+        int negativeStaleness = builder.negativeStalenessInterval == null
+            ? Math.min(DEFAULT_NEGATIVE_STALENESS, builder.stalenessInterval)
+            : builder.negativeStalenessInterval;
+        if (negativeStaleness > 0) {
+            bufferBuilder.withNegativeCaching(negativeStaleness, MAX_ABSENT_TITLES);
+        }
+        if (builder.diskCacheFile != null) {
+            bufferBuilder.withDiskTier(Path.of(builder.diskCacheFile), WikiPage.SERIALIZER);
+        }
+        if (snapshots) {
+            bufferBuilder.withSnapshot(Path.of(builder.cacheSnapshotFile), WikiPage.SERIALIZER);
+        }
+        if (builder.offHeapPages) {
+            bufferBuilder.withOffHeapStorage(WikiPage.SERIALIZER);
+        }
+        if (builder.refreshAfter > 0) {
+            bufferBuilder.withRefreshAhead(builder.refreshAfter, builder.refreshGracePeriod,
+                this::fetchPage, ioExecutor);
+        }
+        this.wikiBuffer = bufferBuilder.build();
+        this.searchBuffer = new FSFTBuffer.Builder<SearchResult>()
+            .withCapacity(builder.searchCapacity)
+            .withTimeout(stableStaleness)
+            .withTicker(ticker)
+            .build();
+        this.linkGraph = new LinkGraph(wiki, builder.linkCapacity,
+            builder.linkStalenessInterval == null ? stableStaleness
+                : builder.linkStalenessInterval, ticker);
 
         // Requests in the list will be immutable, therefore no need to put locks on them,
         // except for the first.
@@ -65,15 +207,65 @@ public class WikiMediator {
 
         // Note: only one newline at end of file. Any other blank lines will break this.
         try {
-            BufferedReader reader = new BufferedReader(new FileReader(FILEPATH));
+            BufferedReader reader = new BufferedReader(new FileReader(requestLog));
             for (String fileLine = reader.readLine(); fileLine != null;
                  fileLine = reader.readLine()) {
                 Request lineRequest = lineParser(fileLine.split(" "));
                 requests.add(lineRequest);
+                count(lineRequest);
             }
             reader.close();
         } catch (IOException ioe) {
-            System.out.println("Could not find request_data");
+            System.out.println("Could not find " + requestLog);
+        }
+
+        if (builder.warmUpPages > 0) {
+            warmUp(builder.warmUpPages, builder.warmUpConcurrency, builder.warmUpBudget);
+        }
+    }
+
+    /**
+     * Fetches the pages most often requested in the replayed request log into the cache,
+     * so that they are not all missed at once after a restart.
+     * Pages are fetched in parallel, and fetching stops once the time budget is spent;
+     * pages still being fetched then finish in the background.
+     * These fetches are not requests: they are neither logged nor counted by zeitgeist,
+     * trending or windowedPeakLoad.
+     *
+     * @param pages       the number of most requested titles to fetch, a positive integer
+     * @param concurrency the number of pages fetched at once, a positive integer
+     * @param timeBudget  the number of seconds to wait for the fetches, a positive integer
+     */
+    private void warmUp(int pages, int concurrency, int timeBudget) {
+        // No other thread can see this mediator yet, so requests can be read without the lock.
+        HashMap<String, Integer> pageFrequencies = new HashMap<>();
+        for (int reqIndex = 1; reqIndex < requests.size(); reqIndex++) {
+            Request request = requests.get(reqIndex);
+            if (request.getType() == RequestType.GET_PAGE) {
+                pageFrequencies.merge(request.getQuery(), 1, Integer::sum);
+            }
+        }
+        List<String> titles = new ArrayList<>(pageFrequencies.keySet());
+        titles.sort(Comparator.comparing((String title) -> pageFrequencies.get(title))
+            .reversed().thenComparing(Comparator.naturalOrder()));
+
+        ExecutorService warmers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "WikiMediator-warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String title : titles.subList(0, Math.min(pages, titles.size()))) {
+            warmers.execute(() -> cachedPage(title));
+        }
+        warmers.shutdown();
+        try {
+            if (!warmers.awaitTermination(timeBudget, TimeUnit.SECONDS)) {
+                // Drop the titles not started yet; jwiki does not stop on interrupts.
+                warmers.shutdownNow();
+            }
+        } catch (InterruptedException ie) {
+            warmers.shutdownNow();
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -86,12 +278,76 @@ public class WikiMediator {
      * @return a list of page titles that contains the searched string query
      */
     public List<String> search(String query, int limit) {
-        synchronized (requests.get(LOCK_INDEX)) {
-            Request request = new Request(RequestType.SEARCH, query);
-            requests.add(request);
-            writeToFile(request);
+        logRequest(RequestType.SEARCH, query);
+        return cachedSearch(query, limit);
+    }
+
+    /**
+     * Like search, but returns at once, running the search on this mediator's I/O executor.
+     * The request is logged before this method returns.
+     *
+     * @param query a non-null string that contains the query that we want to search for
+     * @param limit a positive integer representing the maximum amount of page titles that match the query string
+     * @return a future completed with the page titles that search would return
+     */
+    public CompletableFuture<List<String>> searchAsync(String query, int limit) {
+        logRequest(RequestType.SEARCH, query);
+        return supplyIo(() -> cachedSearch(query, limit));
+    }
+
+    /**
+     * Answers a search from the search cache, asking Wikipedia only if no cached result
+     * for the query answers {@code limit}. Concurrent misses on the same query share one
+     * search, and a result for a larger limit replaces the cached one unless another
+     * thread has already cached one that answers as many.
+     * Searches that find nothing are not cached, since a search service that could not
+     * be reached also returns nothing.
+     *
+     * @param query a non-null string that contains the query that we want to search for
+     * @param limit a positive integer representing the maximum amount of page titles that match the query string
+     * @return the titles wiki.search(query, limit) returns
+     */
+    private List<String> cachedSearch(String query, int limit) {
+        SearchResult result = searchBuffer.get(SearchResult.key(query),
+            key -> fetchSearch(query, limit));
+        if (result != null && !result.answers(limit)) {
+            result = fetchSearch(query, limit);
+            if (result != null) {
+                replaceSearch(result);
+            }
         }
-        return wiki.search(query, limit);
+        return result == null ? new ArrayList<>() : result.first(limit);
+    }
+
+    /**
+     * Caches a search result in place of the one cached for its query, unless the cached
+     * one answers every limit the new one does.
+     * Replacements are made one at a time, so that of two searches for larger limits that
+     * finish out of order, the smaller result cannot overwrite the larger one.
+     * A loader in cachedSearch never overwrites a cached result, so it needs no lock.
+     *
+     * @param result a non-null result of a search made because the cached one fell short
+     */
+    private void replaceSearch(SearchResult result) {
+        synchronized (searchLock) {
+            SearchResult cached = searchBuffer.peek(result.id());
+            if (cached != null && cached.covers(result)) {
+                return;
+            }
+            if (!searchBuffer.update(result)) {
+                searchBuffer.put(result);
+            }
+        }
+    }
+
+    /**
+     * @param query a non-null string that contains the query that we want to search for
+     * @param limit a positive integer representing the maximum amount of page titles that match the query string
+     * @return the titles Wikipedia's search service matches, or null if there are none
+     */
+    private SearchResult fetchSearch(String query, int limit) {
+        List<String> titles = wiki.search(query, limit);
+        return titles == null || titles.isEmpty() ? null : new SearchResult(query, limit, titles);
     }
 
     /**
@@ -102,22 +358,93 @@ public class WikiMediator {
      * @return The text of the page, or an empty string if the page is non-existent/something went wrong.
      */
     public String getPage(String pageTitle) {
-        synchronized (requests.get(LOCK_INDEX)) {
-            Request request = new Request(RequestType.GET_PAGE, pageTitle);
-            requests.add(request);
-            writeToFile(request);
-        }
+        logRequest(RequestType.GET_PAGE, pageTitle);
+        return pageText(cachedPage(pageTitle));
+    }
+
+    /**
+     * Like getPage, but returns at once, looking up or fetching the page on this mediator's
+     * I/O executor. The request is logged before this method returns.
+     *
+     * @param pageTitle a non-null String
+     * @return a future completed with the text getPage would return
+     */
+    public CompletableFuture<String> getPageAsync(String pageTitle) {
+        logRequest(RequestType.GET_PAGE, pageTitle);
+        return supplyIo(() -> pageText(cachedPage(pageTitle)));
+    }
 
-        String pageText;
-        // Concurrent puts and gets should already be threadsafe.
+    /**
+     * Returns the counters of the page cache, for monitoring. Unlike the other methods,
+     * this is not a request: it is neither logged nor counted by zeitgeist, trending
+     * or windowedPeakLoad.
+     *
+     * @return a snapshot of the page cache's hit, miss, load, eviction and expiry counters
+     */
+    public CacheStats cacheStats() {
+        return wikiBuffer.stats();
+    }
+
+    /**
+     * @param page a cached page, or null if there is none
+     * @return the text of {@code page}, or an empty string if there is no page
+     */
+    private static String pageText(WikiPage page) {
+        return page == null ? "" : page.getPageText();
+    }
+
+    /**
+     * Looks a page up in the cache, fetching it from Wikipedia on a miss.
+     * A page that could not be fetched is answered like a missing one, but nothing is
+     * cached for it, so the next request for it asks Wikipedia again.
+     *
+     * @param pageTitle a non-null String
+     * @return the page, or null if there is no such page or it could not be fetched
+     */
+    private WikiPage cachedPage(String pageTitle) {
         try {
-            // Using pageTitle as ID.
-            pageText = (wikiBuffer.get(pageTitle)).getPageText();
-        } catch (NoSuchElementException noPage) {
-            pageText = wiki.getPageText(pageTitle);
-            wikiBuffer.put(new WikiPage(pageTitle, pageText));
+            // Using pageTitle as ID. Concurrent misses on the same title share one fetch.
+            return wikiBuffer.get(pageTitle, this::fetchPage);
+        } catch (RuntimeException re) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the cached pages to the snapshot file given to withCacheSnapshot, so that
+     * a mediator built later on the same file starts with them. Like cacheStats, this is
+     * not a request.
+     *
+     * @return the number of pages written, or 0 if this mediator was built without
+     * a snapshot file
+     * @throws java.io.UncheckedIOException if the snapshot cannot be written
+     */
+    public int saveCacheSnapshot() {
+        return snapshots ? wikiBuffer.snapshot() : 0;
+    }
+
+    /**
+     * Fetches a page from Wikipedia, in the form it is cached in.
+     * A page that does not exist is returned as null, so that the cache remembers it for
+     * the negative staleness interval instead of asking Wikipedia again on every request.
+     * A failed fetch throws instead, so that it is not remembered as a missing page.
+     *
+     * @param pageTitle a non-null String
+     * @return the page with its current text, compressed if this mediator compresses pages,
+     * or null if there is no such page
+     * @throws RuntimeException if Wikipedia could not be reached
+     */
+    private WikiPage fetchPage(String pageTitle) {
+        String pageText = wiki.getPageText(pageTitle);
+        if (pageText == null || pageText.isEmpty()) {
+            return null;
         }
-        return pageText;
+        WikiPage page = compressionLevel == NO_COMPRESSION
+            ? new WikiPage(pageTitle, pageText)
+            : WikiPage.compressed(pageTitle, pageText, compressionLevel);
+        // Look for the templates once, while the text is at hand, since the expiry is
+        // asked again on every refresh, disk reload and snapshot restore.
+        return CURRENT_EVENT.matcher(pageText).find() ? page.asCurrentEvent() : page;
     }
 
     /**
@@ -130,37 +457,26 @@ public class WikiMediator {
      * used in {@code search} and {@code getPage} requests.
      */
     public List<String> zeitgeist(int limit) {
-        int numRequests;
         synchronized (requests.get(LOCK_INDEX)) {
-            Request request = new Request(RequestType.ZEITGEIST);
+            Request request = new Request(RequestType.ZEITGEIST, ticker.currentTimeMillis());
             requests.add(request);
             writeToFile(request);
-            // Keep track of the current list size, so that if anything is added to the end while zeitgeist is
-            // iterating it doesn't screw up.
-            // Don't include the request itself, since it's not of type SEARCH or GET_PAGE
-            numRequests = requests.size() - 1;
+            // The counts are kept up to date as requests are logged, so this reads the
+            // top of them instead of going over the whole history.
+            return queryCounts.top(limit);
         }
+    }
 
-        // Make a hashmap in zeitgeist, so no worries about concurrent threads taking from the same hashmap.
-        HashMap<String, Integer> queryFrequencies = new HashMap<>();
-        // index 0 is the lock.
-        for (int reqIndex = 1; reqIndex < numRequests; reqIndex++) {
-
-            // Only concerned with search or getPage:
-            Request currentReq = requests.get(reqIndex);
-            if (currentReq.getType() == RequestType.SEARCH ||
-                currentReq.getType() == RequestType.GET_PAGE) {
-
-                // If String is not in the hashMap already, add it. Else, increase its frequency.
-                String query = currentReq.getQuery();
-                if (!queryFrequencies.containsKey(query)) {
-                    queryFrequencies.put(query, 1);
-                } else {
-                    queryFrequencies.put(query, queryFrequencies.get(query) + 1);
-                }
-            }
-        }
-        return getCommonStrings(queryFrequencies, limit);
+    /**
+     * Like zeitgeist, but returns a future. The request is logged and answered in the
+     * calling thread, since the answer is read from running counts, so the returned
+     * future is already complete.
+     *
+     * @param limit the maximum number of common {@code String}s to return.
+     * @return a completed future holding the list zeitgeist would return
+     */
+    public CompletableFuture<List<String>> zeitgeistAsync(int limit) {
+        return CompletableFuture.completedFuture(zeitgeist(limit));
     }
 
     /**
@@ -172,18 +488,24 @@ public class WikiMediator {
      * @return list of strings representing the list of most frequent requests within a time limit window
      */
     public List<String> trending(int timeLimitInSeconds, int maxItems) {
-        int startIndex;
-        long currentTime;
-        synchronized (requests.get(LOCK_INDEX)) {
-            // Put the following in the lock, so currentTime is always larger than anything else currently in requests.
-            currentTime = System.currentTimeMillis();
-            Request request = new Request(RequestType.TRENDING);
-            requests.add(request);
-            writeToFile(request);
+        return trendingUpTo(logRequest(RequestType.TRENDING, null), timeLimitInSeconds,
+            maxItems);
+    }
 
-            // Doesn't care about itself, since its own request type is of type TRENDING.
-            startIndex = requests.size() - 2;
-        }
+    /**
+     * Counts the most frequent queries in the window ending at a logged trending request.
+     *
+     * @param requestIndex       the index in requests of the trending request
+     * @param timeLimitInSeconds the time limit (in seconds) of interest
+     * @param maxItems           a positive integer
+     * @return list of strings representing the list of most frequent requests within a time limit window
+     */
+    private List<String> trendingUpTo(int requestIndex, int timeLimitInSeconds, int maxItems) {
+        // Requests are only ever appended, and the trending request was logged with the
+        // latest time, so everything counted lies before it.
+        long currentTime = requests.get(requestIndex).getRequestTime();
+        // Doesn't care about itself, since its own request type is of type TRENDING.
+        int startIndex = requestIndex - 1;
 
         // Make a hashmap for trending, start iterating over the requests from the startIndex
         HashMap<String, Integer> queryFrequencies = new HashMap<>();
@@ -212,6 +534,19 @@ public class WikiMediator {
         return getCommonStrings(queryFrequencies, maxItems);
     }
 
+    /**
+     * Like trending, but returns at once. The request is logged before this method
+     * returns, and the counting runs on this mediator's I/O executor.
+     *
+     * @param timeLimitInSeconds the time limit (in seconds) of interest
+     * @param maxItems           a positive integer
+     * @return a future completed with the list trending would return
+     */
+    public CompletableFuture<List<String>> trendingAsync(int timeLimitInSeconds, int maxItems) {
+        int requestIndex = logRequest(RequestType.TRENDING, null);
+        return supplyIo(() -> trendingUpTo(requestIndex, timeLimitInSeconds, maxItems));
+    }
+
     /**
      * Gives the maximum number of requests seen in any time window of a given length
      * The request count is to include all requests made using the public API of `WikiMediator`, and
@@ -224,13 +559,18 @@ public class WikiMediator {
      * {@code timeWindowInSeconds}.
      */
     public int windowedPeakLoad(int timeWindowInSeconds) {
-        int endIndex;
-        synchronized (requests.get(LOCK_INDEX)) {
-            Request request = new Request(RequestType.PEAK_LOAD);
-            requests.add(request);
-            writeToFile(request);
-            endIndex = requests.size() - 1;
-        }
+        return peakLoadUpTo(logRequest(RequestType.PEAK_LOAD, null), timeWindowInSeconds);
+    }
+
+    /**
+     * Finds the peak load among the requests up to and including a logged request.
+     *
+     * @param endIndex            the index in requests of the windowedPeakLoad request
+     * @param timeWindowInSeconds the time window in which to count requests
+     * @return the maximum number of requests up to {@code endIndex} seen in any time
+     * window of length {@code timeWindowInSeconds}
+     */
+    private int peakLoadUpTo(int endIndex, int timeWindowInSeconds) {
         long window = timeWindowInSeconds * MILLIS_PER_SEC;
         int startIndex = 1;
         int peakLoad = 0;
@@ -261,9 +601,92 @@ public class WikiMediator {
         return windowedPeakLoad(DEFAULT_LOAD_WINDOW);
     }
 
+    /**
+     * Like windowedPeakLoad, but returns at once. The request is logged before this
+     * method returns, and the counting runs on this mediator's I/O executor.
+     *
+     * @param timeWindowInSeconds the time window in which to count requests
+     * @return a future completed with the peak load windowedPeakLoad would return
+     */
+    public CompletableFuture<Integer> windowedPeakLoadAsync(int timeWindowInSeconds) {
+        int endIndex = logRequest(RequestType.PEAK_LOAD, null);
+        return supplyIo(() -> peakLoadUpTo(endIndex, timeWindowInSeconds));
+    }
+
+    /**
+     * Like windowedPeakLoad(), but returns at once, counting on this mediator's I/O executor.
+     *
+     * @return a future completed with the peak load of a default window
+     */
+    public CompletableFuture<Integer> windowedPeakLoadAsync() {
+        return windowedPeakLoadAsync(DEFAULT_LOAD_WINDOW);
+    }
+
+    /**
+     * Records a request in the request list and the request log.
+     *
+     * @param type  the type of the request, non-null
+     * @param query the page title or search query of the request, or null if it has none
+     * @return the index of the request in requests
+     */
+    private int logRequest(RequestType type, String query) {
+        synchronized (requests.get(LOCK_INDEX)) {
+            Request request = query == null
+                ? new Request(type, ticker.currentTimeMillis())
+                : new Request(type, query, ticker.currentTimeMillis());
+            requests.add(request);
+            count(request);
+            writeToFile(request);
+            return requests.size() - 1;
+        }
+    }
+
+    /**
+     * Counts the query of a SEARCH or GET_PAGE request for zeitgeist.
+     * Must be called while holding the lock, once for each request added to requests.
+     *
+     * @param request a request just added to requests, non-null
+     */
+    private void count(Request request) {
+        if (request.getType() == RequestType.SEARCH
+            || request.getType() == RequestType.GET_PAGE) {
+            queryCounts.add(request.getQuery());
+        }
+    }
+
+    /**
+     * Runs work on this mediator's I/O executor.
+     * If the returned future is cancelled, or times out through orTimeout, before the work
+     * starts, the work never runs, so abandoned requests do not hold up the executor.
+     * Work that has started runs to the end, but its result is discarded.
+     *
+     * @param work the work to run, non-null
+     * @param <R>  the type of the work's result
+     * @return a future completed with the work's result, or exceptionally with what it
+     * threw, or with a RejectedExecutionException if the executor refused it
+     */
+    private <R> CompletableFuture<R> supplyIo(Supplier<R> work) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            ioExecutor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(work.get());
+                } catch (Throwable thrown) {
+                    future.completeExceptionally(thrown);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            future.completeExceptionally(ree);
+        }
+        return future;
+    }
+
     private void writeToFile(Request request) {
         try {
-            FileWriter requestWriter = new FileWriter(FILEPATH, true);
+            FileWriter requestWriter = new FileWriter(requestLog, true);
             StringBuilder lineBuilder = new StringBuilder();
 
             lineBuilder.append(request.getType().toString());
@@ -278,7 +701,7 @@ public class WikiMediator {
             requestWriter.write("\n");
             requestWriter.close();
         } catch (IOException ioe) {
-            System.out.println("Couldn't find request_data");
+            System.out.println("Couldn't find " + requestLog);
         }
     }
 
@@ -361,14 +784,47 @@ public class WikiMediator {
      */
     public List<String> shortestPath(String pageTitle1, String pageTitle2, int timeout) throws
         TimeoutException {
-        synchronized (requests.get(LOCK_INDEX)) {
-            requests.add(new Request(RequestType.PATH));
-            writeToFile(new Request(RequestType.PATH));
-        }
+        logRequest(RequestType.PATH, null);
+        return findPath(pageTitle1, pageTitle2, timeout);
+    }
+
+    /**
+     * Like shortestPath, but returns at once, searching on this mediator's I/O executor.
+     * The request is logged before this method returns.
+     *
+     * @param pageTitle1 a non-null string
+     * @param pageTitle2 a non-null string
+     * @param timeout    a positive integer
+     * @return a future completed with the path shortestPath would return, or exceptionally
+     * with a TimeoutException if there is no connection or the search times out
+     */
+    public CompletableFuture<List<String>> shortestPathAsync(String pageTitle1,
+                                                             String pageTitle2, int timeout) {
+        logRequest(RequestType.PATH, null);
+        return supplyIo(() -> {
+            try {
+                return findPath(pageTitle1, pageTitle2, timeout);
+            } catch (TimeoutException te) {
+                throw new CompletionException(te);
+            }
+        });
+    }
 
+    /**
+     * Searches for the forward path of page titles from pageTitle1 to pageTitle2,
+     * without logging a request.
+     *
+     * @param pageTitle1 a non-null string
+     * @param pageTitle2 a non-null string
+     * @param timeout    a positive integer
+     * @return List<String> containing the forward path of page titles.
+     * @throws TimeoutException if there is no connection, or the connection times out
+     */
+    private List<String> findPath(String pageTitle1, String pageTitle2, int timeout) throws
+        TimeoutException {
         long currentTime = System.currentTimeMillis();
 
-        List<String> forwardPageTitles1 = wiki.getLinksOnPage(pageTitle1);
+        List<String> forwardPageTitles1 = linkGraph.linksOnPage(pageTitle1);
 
         for (String page : forwardPageTitles1) {
             if (page.equals(pageTitle2)) {
@@ -376,7 +832,7 @@ public class WikiMediator {
             }
         }
 
-        List<String> backwardsPageTitles2 = wiki.whatLinksHere(pageTitle2);
+        List<String> backwardsPageTitles2 = linkGraph.whatLinksHere(pageTitle2);
 
         if (currentTime + timeout * MILLIS_PER_SEC < System.currentTimeMillis()) {
             throw new TimeoutException("Operation timed out");
@@ -389,7 +845,7 @@ public class WikiMediator {
         boolean found = false;
         while (!found) {
             depth = Arrays.asList(currentSearchDepth, 0);
-            PathThread mainThread = new PathThread(wiki, pageTitle1, pageTitle2,
+            PathThread mainThread = new PathThread(linkGraph, pageTitle1, pageTitle2,
                 currentTime, timeout * MILLIS_PER_SEC, backwardsPageTitles2, depth, 1);
             mainThread.run();
             if (depth.get(1) == 1) {
@@ -423,4 +879,321 @@ public class WikiMediator {
 
         return shortestPaths.get(0);
     }
+
+    /**
+     * Builds WikiMediators with optional settings.
+     * Unless set otherwise, the page cache holds FSFTBuffer.DSIZE pages for
+     * FSFTBuffer.DTIMEOUT seconds and uses window TinyLFU eviction.
+     */
+    public static class Builder {
+        private int capacity = FSFTBuffer.DSIZE;
+        private int stalenessInterval = FSFTBuffer.DTIMEOUT;
+        private long maximumCacheBytes = 0;
+        private Eviction eviction = DEFAULT_EVICTION;
+        private boolean offHeapPages = false;
+        private String diskCacheFile = null;
+        private String cacheSnapshotFile = null;
+        private int compressionLevel = NO_COMPRESSION;
+        private double refreshAfter = 0;
+        private Ticker ticker = Ticker.system();
+        private int refreshGracePeriod = 0;
+        private Executor executor = IO_EXECUTOR;
+        private Integer negativeStalenessInterval = null;
+        private Integer currentEventStalenessInterval = null;
+        private int searchCapacity = DEFAULT_SEARCH_CAPACITY;
+        private int linkCapacity = DEFAULT_LINK_CAPACITY;
+        private Integer linkStalenessInterval = null;
+        private int warmUpPages = 0;
+        private int warmUpConcurrency = 1;
+        private int warmUpBudget = 0;
+        private WikiSource wikiSource = null;
+        private String requestLog = FILEPATH;
+
+        /**
+         * @param capacity the number of pages the cache can hold, a positive integer
+         * @return this builder
+         */
+        public Builder withCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Sizes the caches of links on and to pages that shortestPath reads through,
+         * so that pages visited by one path search are not fetched again by the next.
+         * Links are kept as four-byte ids, and each of the two caches holds up to
+         * {@code linkCapacity} of them. The titles the ids stand for are kept in tables of
+         * up to {@code linkCapacity} titles; once a table is full a new one is started,
+         * and the old one is freed when no cached links use it any more.
+         * Unless set otherwise, each cache holds a million links for the staleness interval.
+         *
+         * @param linkCapacity          the number of links each cache can hold,
+         *                              a positive integer
+         * @param linkStalenessInterval the number of seconds after which the cached links
+         *                              of a page are stale, a positive integer
+         * @return this builder
+         */
+        public Builder withLinkCache(int linkCapacity, int linkStalenessInterval) {
+            if (linkCapacity <= 0 || linkStalenessInterval <= 0) {
+                throw new IllegalArgumentException(
+                    "linkCapacity and linkStalenessInterval must be positive");
+            }
+            this.linkCapacity = linkCapacity;
+            this.linkStalenessInterval = linkStalenessInterval;
+            return this;
+        }
+
+        /**
+         * Sets how many search results are cached, each for the staleness interval.
+         * Unless set otherwise, this is 256.
+         *
+         * @param searchCapacity the number of queries whose results the cache can hold,
+         *                       a positive integer
+         * @return this builder
+         */
+        public Builder withSearchCapacity(int searchCapacity) {
+            if (searchCapacity <= 0) {
+                throw new IllegalArgumentException("searchCapacity must be positive");
+            }
+            this.searchCapacity = searchCapacity;
+            return this;
+        }
+
+        /**
+         * @param stalenessInterval the number of seconds after which a cached page is stale,
+         *                          a positive integer
+         * @return this builder
+         */
+        public Builder withStalenessInterval(int stalenessInterval) {
+            this.stalenessInterval = stalenessInterval;
+            return this;
+        }
+
+        /**
+         * Bounds the page cache by the UTF-8 size of the cached titles and texts instead of
+         * by number of pages, so that it can be sized against the heap.
+         * This takes precedence over withCapacity.
+         *
+         * @param maximumCacheBytes the total size of cached pages, in bytes, a positive long
+         * @return this builder
+         */
+        public Builder withMaximumCacheBytes(long maximumCacheBytes) {
+            this.maximumCacheBytes = maximumCacheBytes;
+            return this;
+        }
+
+        /**
+         * @param eviction the policy deciding which page leaves a full cache, non-null
+         * @return this builder
+         */
+        public Builder withEvictionPolicy(Eviction eviction) {
+            this.eviction = eviction;
+            return this;
+        }
+
+        /**
+         * Keeps cached page titles and texts in direct memory instead of on the Java heap,
+         * so that a large cache does not lengthen garbage collection pauses.
+         * Each cache hit then decodes the page text again.
+         *
+         * @return this builder
+         */
+        public Builder withOffHeapPages() {
+            this.offHeapPages = true;
+            return this;
+        }
+
+        /**
+         * Keeps pages that no longer fit in the cache in a file, and looks there before
+         * going to Wikipedia, so that a restarted mediator does not have to fetch every
+         * page again. Pages in the file go stale after the same staleness interval as
+         * pages in memory, counted from when they were fetched.
+         *
+         * @param diskCacheFile the file holding the pages, such as "local/page_cache",
+         *                      whose directory must exist; non-null
+         * @return this builder
+         */
+        public Builder withDiskCache(String diskCacheFile) {
+            this.diskCacheFile = diskCacheFile;
+            return this;
+        }
+
+        /**
+         * Makes the mediator start with the pages in the last snapshot saved to a file by
+         * saveCacheSnapshot, each still going stale when it would have, so that a restart
+         * does not have to fetch every cached page again. A server saves a snapshot when
+         * it is stopped.
+         *
+         * @param cacheSnapshotFile the file holding the snapshot, such as
+         *                          "local/cache_snapshot", whose directory must exist;
+         *                          non-null
+         * @return this builder
+         */
+        public Builder withCacheSnapshot(String cacheSnapshotFile) {
+            this.cacheSnapshotFile = cacheSnapshotFile;
+            return this;
+        }
+
+        /**
+         * Caches page texts deflated, so that a cache bounded by withMaximumCacheBytes holds
+         * several times more pages, at the cost of inflating a page on every cache hit.
+         *
+         * @param compressionLevel the compression level, from Deflater.BEST_SPEED (1)
+         *                         to Deflater.BEST_COMPRESSION (9)
+         * @return this builder
+         */
+        public Builder withPageCompression(int compressionLevel) {
+            if (compressionLevel < Deflater.BEST_SPEED
+                || compressionLevel > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("compressionLevel must be from 1 to 9");
+            }
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * Refetches cached pages that are still being requested late in their staleness
+         * interval in the background, so that requests for a popular page do not wait on
+         * Wikipedia each time it goes stale.
+         *
+         * @param refreshAfter the fraction of the staleness interval after which a request
+         *                     refetches the page, 0 < {@code refreshAfter} <= 1
+         * @param gracePeriod  the number of seconds a stale page is still served while it
+         *                     is refetched, {@code gracePeriod} >= 0
+         * @return this builder
+         */
+        public Builder withRefreshAhead(double refreshAfter, int gracePeriod) {
+            if (!(refreshAfter > 0 && refreshAfter <= 1)) {
+                throw new IllegalArgumentException("refreshAfter must be in (0, 1]");
+            }
+            if (gracePeriod < 0) {
+                throw new IllegalArgumentException("gracePeriod must not be negative");
+            }
+            this.refreshAfter = refreshAfter;
+            this.refreshGracePeriod = gracePeriod;
+            return this;
+        }
+
+        /**
+         * Sets the clock that request times and page staleness are measured with, such as
+         * Ticker.coarse() to avoid reading the system clock on every request, or a
+         * FakeTicker to test trending and windowedPeakLoad without waiting.
+         * shortestPath timeouts are always measured in real time.
+         *
+         * @param ticker the source of the current time, non-null
+         * @return this builder
+         */
+        public Builder withTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * Sets how long a cached page about an event still unfolding, marked with a
+         * current, ongoing or recent death template, stays fresh; other pages stay
+         * fresh for the staleness interval. Unless set otherwise, this is five minutes,
+         * or the staleness interval if that is shorter.
+         *
+         * @param currentEventStalenessInterval the number of seconds after which a cached
+         *                                      current-event page is stale,
+         *                                      a positive integer
+         * @return this builder
+         */
+        public Builder withCurrentEventStalenessInterval(int currentEventStalenessInterval) {
+            if (currentEventStalenessInterval <= 0) {
+                throw new IllegalArgumentException(
+                    "currentEventStalenessInterval must be positive");
+            }
+            this.currentEventStalenessInterval = currentEventStalenessInterval;
+            return this;
+        }
+
+        /**
+         * Sets how long the cache remembers that a title has no page, so that repeated
+         * requests for it get an empty string without asking Wikipedia. A fetch that
+         * failed is never remembered. Unless set otherwise, this is a minute, or the
+         * staleness interval if that is shorter.
+         *
+         * @param negativeStalenessInterval the number of seconds a missing page is
+         *                                  remembered, or 0 to never remember it,
+         *                                  {@code negativeStalenessInterval} >= 0
+         * @return this builder
+         */
+        public Builder withNegativeStalenessInterval(int negativeStalenessInterval) {
+            if (negativeStalenessInterval < 0) {
+                throw new IllegalArgumentException(
+                    "negativeStalenessInterval must not be negative");
+            }
+            this.negativeStalenessInterval = negativeStalenessInterval;
+            return this;
+        }
+
+        /**
+         * Makes build() fetch the pages most often requested in the request log it
+         * replays into the cache before returning, so that a restarted mediator does not
+         * start with an empty cache. build() waits for at most {@code timeBudget} seconds.
+         *
+         * @param pages       the number of most requested titles to fetch, a positive integer
+         * @param concurrency the number of pages fetched at once, a positive integer
+         * @param timeBudget  the number of seconds build() waits for the fetches,
+         *                    a positive integer
+         * @return this builder
+         */
+        public Builder withWarmUp(int pages, int concurrency, int timeBudget) {
+            if (pages <= 0 || concurrency <= 0 || timeBudget <= 0) {
+                throw new IllegalArgumentException(
+                    "pages, concurrency and timeBudget must be positive");
+            }
+            this.warmUpPages = pages;
+            this.warmUpConcurrency = concurrency;
+            this.warmUpBudget = timeBudget;
+            return this;
+        }
+
+        /**
+         * Sets where the mediator gets pages, search results and links from.
+         * Unless set otherwise, this is the English Wikipedia.
+         *
+         * @param wikiSource answers the mediator's Wikipedia calls, non-null
+         * @return this builder
+         */
+        public Builder withWikiSource(WikiSource wikiSource) {
+            this.wikiSource = wikiSource;
+            return this;
+        }
+
+        /**
+         * Sets the file requests are replayed from when the mediator is built, and
+         * appended to as they are made. Unless set otherwise, this is local/request_data.
+         *
+         * @param requestLog the path of the request log, non-null
+         * @return this builder
+         */
+        public Builder withRequestLog(String requestLog) {
+            this.requestLog = requestLog;
+            return this;
+        }
+
+        /**
+         * Sets the executor that runs the Wikipedia calls of searchAsync, getPageAsync
+         * and shortestPathAsync, the counting of trendingAsync and windowedPeakLoadAsync,
+         * and background page refreshes. Unless set otherwise, mediators share a small
+         * pool of daemon threads.
+         *
+         * @param executor runs Wikipedia calls and request counting, non-null
+         * @return this builder
+         */
+        public Builder withExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @return a new WikiMediator with this builder's settings, which replays
+         * the request log, and has warmed up its cache if asked to
+         */
+        public WikiMediator build() {
+            return new WikiMediator(this);
+        }
+    }
 }
@@ -1,18 +1,101 @@
 package cpen221.mp3.wikimediator;
 
 import cpen221.mp3.fsftbuffer.Bufferable;
+import cpen221.mp3.fsftbuffer.Serializer;
+import cpen221.mp3.fsftbuffer.Weigher;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class WikiPage implements Bufferable {
 
+    /* the size of the buffer compressed text is deflated into */
+    private static final int CHUNK_BYTES = 8192;
+
+    /* the format byte of a serialized page with its text stored as UTF-8 */
+    private static final byte PLAIN = 0;
+
+    /* the format byte of a serialized page with its text stored deflated */
+    private static final byte DEFLATED = 1;
+
+    /* the bit set in the format byte of a serialized page about a current event */
+    private static final byte CURRENT_EVENT = 2;
+
+    /**
+     * Weighs a page by the size, in bytes, of its UTF-8 encoded title and stored text,
+     * for caches bounded by memory rather than by number of pages.
+     * The stored text of a compressed page is its deflated UTF-8 text.
+     */
+    public static final Weigher<WikiPage> UTF8_WEIGHER =
+        page -> utf8Length(page.id) + (page.compressedText == null
+            ? utf8Length(page.pageText) : page.compressedText.length);
+
+    /**
+     * Encodes a page as the length of its UTF-8 title in four bytes, a format byte
+     * that also records whether the page is about a current event,
+     * the length of its UTF-8 text in four bytes if the page is compressed, its UTF-8
+     * title and then its stored text, for caches kept off the heap or on disk.
+     * Compressed pages stay compressed, so they are not deflated again.
+     */
+    public static final Serializer<WikiPage> SERIALIZER = new Serializer<>() {
+        @Override
+        public byte[] serialize(WikiPage page) {
+            byte[] title = page.id.getBytes(StandardCharsets.UTF_8);
+            byte currentEvent = page.currentEvent ? CURRENT_EVENT : 0;
+            if (page.compressedText == null) {
+                byte[] text = page.pageText.getBytes(StandardCharsets.UTF_8);
+                return ByteBuffer.allocate(Integer.BYTES + 1 + title.length + text.length)
+                    .putInt(title.length).put((byte) (PLAIN | currentEvent))
+                    .put(title).put(text).array();
+            }
+            byte[] text = page.compressedText;
+            return ByteBuffer.allocate(2 * Integer.BYTES + 1 + title.length + text.length)
+                .putInt(title.length).put((byte) (DEFLATED | currentEvent))
+                .putInt(page.textLength).put(title).put(text).array();
+        }
+
+        @Override
+        public WikiPage deserialize(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int titleLength = buffer.getInt();
+            byte format = buffer.get();
+            boolean deflated = (format & DEFLATED) != 0;
+            boolean currentEvent = (format & CURRENT_EVENT) != 0;
+            int textLength = deflated ? buffer.getInt() : 0;
+            String title = new String(bytes, buffer.position(), titleLength,
+                StandardCharsets.UTF_8);
+            int textStart = buffer.position() + titleLength;
+            if (!deflated) {
+                return new WikiPage(title, new String(bytes, textStart,
+                    bytes.length - textStart, StandardCharsets.UTF_8), null, 0, currentEvent);
+            }
+            return new WikiPage(title, null,
+                Arrays.copyOfRange(bytes, textStart, bytes.length), textLength, currentEvent);
+        }
+    };
+
     private final String id;
     private final String pageText;
+    private final byte[] compressedText;
+    private final int textLength;
+    private final boolean currentEvent;
 
     /* Representation Invariant */
     // id is non-null
-    // pageText is non-null
+    // exactly one of pageText and compressedText is non-null
+    // if compressedText is non-null, it inflates to textLength bytes of UTF-8 text
+    // compressedText is never modified, and is only shared with copies of the page
 
     /* Abstraction Function */
     // represents a wiki page containing the page name and the page text.
+    // The text is pageText, or, for a compressed page, the UTF-8 text compressedText
+    // inflates to. currentEvent is true if whoever created the page marked it as being
+    // about an event still unfolding.
 
     /**
      * Constructor for a WikiPage
@@ -21,15 +104,91 @@ public class WikiPage implements Bufferable {
      * @param pageText is non-null
      */
     public WikiPage(String pageName, String pageText) {
+        this(pageName, pageText, null, 0, false);
+    }
+
+    private WikiPage(String pageName, String pageText, byte[] compressedText, int textLength,
+                     boolean currentEvent) {
         this.id = pageName;
         this.pageText = pageText;
+        this.compressedText = compressedText;
+        this.textLength = textLength;
+        this.currentEvent = currentEvent;
     }
 
     /**
-     * @return a reference to the this pageText
+     * Creates a WikiPage that holds its text deflated, which makes wiki markup several times
+     * smaller, at the cost of inflating it again on every call to getPageText().
+     *
+     * @param pageName is non-null
+     * @param pageText is non-null
+     * @param level    the compression level, from Deflater.BEST_SPEED (1) to
+     *                 Deflater.BEST_COMPRESSION (9)
+     * @return a compressed page with the given name and text
+     */
+    public static WikiPage compressed(String pageName, String pageText, int level) {
+        byte[] text = pageText.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(text);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(text.length / 4 + 16);
+            byte[] chunk = new byte[CHUNK_BYTES];
+            while (!deflater.finished()) {
+                compressed.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return new WikiPage(pageName, null, compressed.toByteArray(), text.length, false);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return the page text, which for a compressed page is inflated on each call
      */
     public String getPageText() {
-        return pageText;
+        if (compressedText == null) {
+            return pageText;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressedText);
+            byte[] text = new byte[textLength];
+            int length = 0;
+            while (length < textLength && !inflater.finished() && !inflater.needsInput()) {
+                length += inflater.inflate(text, length, textLength - length);
+            }
+            return new String(text, 0, length, StandardCharsets.UTF_8);
+        } catch (DataFormatException dfe) {
+            // compressedText is only ever produced by a Deflater.
+            throw new IllegalStateException(dfe);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return true if this page holds its text deflated
+     */
+    public boolean isCompressed() {
+        return compressedText != null;
+    }
+
+    /**
+     * @return a page with the same title and text, marked as being about a current event
+     */
+    public WikiPage asCurrentEvent() {
+        return new WikiPage(id, pageText, compressedText, textLength, true);
+    }
+
+    /**
+     * Tells whether the page was marked as being about a current event, without reading
+     * its text, so that a compressed page need not be inflated to find out.
+     *
+     * @return true if this page was marked by asCurrentEvent
+     */
+    public boolean isCurrentEvent() {
+        return currentEvent;
     }
 
     /**
@@ -38,4 +197,29 @@ public class WikiPage implements Bufferable {
     public String id() {
         return this.id;
     }
+
+    /**
+     * Counts the bytes needed to encode a string as UTF-8, without encoding it.
+     *
+     * @param text a non-null string
+     * @return the UTF-8 encoded length of {@code text}
+     */
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int index = 0; index < text.length(); index++) {
+            char c = text.charAt(index);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && index + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(index + 1))) {
+                length += 4;
+                index++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
 }
@@ -0,0 +1,67 @@
+package cpen221.mp3.wikimediator;
+
+import org.fastily.jwiki.core.Wiki;
+
+import java.util.List;
+
+/**
+ * The Wikipedia calls a WikiMediator makes, so that a mediator can be run against a
+ * stand-in, such as a synthetic wiki for benchmarks, instead of the live site.
+ * Implementations must be safe to call from several threads at once.
+ */
+public interface WikiSource {
+
+    /**
+     * @param query a non-null search query
+     * @param limit the maximum number of titles to return
+     * @return up to {@code limit} titles matching {@code query}, best match first,
+     * or an empty list if there are none or the source could not be reached
+     */
+    List<String> search(String query, int limit);
+
+    /**
+     * @param pageTitle a non-null title
+     * @return the text of the page, or an empty string or null if there is no such page
+     */
+    String getPageText(String pageTitle);
+
+    /**
+     * @param pageTitle a non-null title
+     * @return the titles the page links to, or an empty list if there are none
+     */
+    List<String> getLinksOnPage(String pageTitle);
+
+    /**
+     * @param pageTitle a non-null title
+     * @return the titles of the pages linking to the page, or an empty list if there are none
+     */
+    List<String> whatLinksHere(String pageTitle);
+
+    /**
+     * @return a source that asks the English Wikipedia through jwiki
+     */
+    static WikiSource wikipedia() {
+        Wiki wiki = new Wiki.Builder().withDomain("en.wikipedia.org").build();
+        return new WikiSource() {
+            @Override
+            public List<String> search(String query, int limit) {
+                return wiki.search(query, limit);
+            }
+
+            @Override
+            public String getPageText(String pageTitle) {
+                return wiki.getPageText(pageTitle);
+            }
+
+            @Override
+            public List<String> getLinksOnPage(String pageTitle) {
+                return wiki.getLinksOnPage(pageTitle);
+            }
+
+            @Override
+            public List<String> whatLinksHere(String pageTitle) {
+                return wiki.whatLinksHere(pageTitle);
+            }
+        };
+    }
+}
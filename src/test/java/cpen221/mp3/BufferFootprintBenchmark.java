@@ -0,0 +1,93 @@
+package cpen221.mp3;
+
+import cpen221.mp3.fsftbuffer.CompactFSFTBuffer;
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+
+import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Memory footprint benchmark comparing FSFTBuffer with CompactFSFTBuffer.
+ * For each layout it fills a buffer of the given capacity with objects that already
+ * exist, and prints the heap the buffer adds per entry, not counting the objects and
+ * their ids, followed by the time per get of a random id that is in the buffer.
+ * Run with a fixed heap so that measurements are not disturbed by resizing, e.g.
+ * java -Xms2g -Xmx2g cpen221.mp3.BufferFootprintBenchmark [capacity]
+ */
+public class BufferFootprintBenchmark {
+    private static final int GETS = 5_000_000;
+
+    public static void main(String[] args) {
+        int capacity = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        TestObject[] objects = new TestObject[capacity];
+        for (int i = 0; i < capacity; i++) {
+            objects[i] = new TestObject(i);
+        }
+
+        System.out.printf("capacity=%d%n", capacity);
+        System.out.printf("%10s %14s %14s%n", "layout", "bytes/entry", "ns/get");
+        // Run each layout twice and report the second run, once the JIT has warmed up.
+        for (int round = 0; round < 2; round++) {
+            run("FSFTBuffer", objects, () -> new FSFTBuffer<TestObject>(capacity, 3600),
+                FSFTBuffer::put, buffer -> buffer::get, round == 1);
+            run("Compact", objects, () -> new CompactFSFTBuffer<TestObject>(capacity, 3600),
+                CompactFSFTBuffer::put, buffer -> buffer::get, round == 1);
+        }
+    }
+
+    /**
+     * Fills a new buffer with every object, then measures it.
+     *
+     * @param layout  the name printed for the buffer
+     * @param objects the objects to put, which stay reachable throughout
+     * @param factory creates an empty buffer with room for every object
+     * @param put     puts an object in a buffer
+     * @param get     gives the get method of a buffer
+     * @param print   whether to print the results
+     */
+    private static <B> void run(String layout, TestObject[] objects,
+                                Supplier<B> factory, BiConsumer<B, TestObject> put,
+                                Function<B, Consumer<String>> get, boolean print) {
+        long before = usedHeap();
+        B buffer = factory.get();
+        for (TestObject object : objects) {
+            put.accept(buffer, object);
+        }
+        long after = usedHeap();
+
+        Consumer<String> getter = get.apply(buffer);
+        String[] ids = new String[GETS];
+        Random random = new Random(221);
+        for (int i = 0; i < GETS; i++) {
+            ids[i] = objects[random.nextInt(objects.length)].id();
+        }
+        long start = System.nanoTime();
+        for (String id : ids) {
+            getter.accept(id);
+        }
+        long getNanos = System.nanoTime() - start;
+
+        if (print) {
+            System.out.printf("%10s %14.1f %14.1f%n", layout,
+                (double) (after - before) / objects.length, (double) getNanos / GETS);
+        }
+        // Keep the buffer reachable until it has been measured.
+        if (buffer.hashCode() == 0) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * @return the bytes of heap in use after collecting garbage
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,83 @@
+package cpen221.mp3;
+
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stress benchmark for FSFTBuffer under contention.
+ * For every segment count it runs a mixed get/put workload with a growing number of
+ * threads and prints the throughput, so the scaling curve of a single lock can be
+ * compared with that of a segmented buffer.
+ * Run with: java cpen221.mp3.BufferStressBenchmark [capacity] [millisPerRun]
+ */
+public class BufferStressBenchmark {
+    private static final int[] SEGMENT_COUNTS = {1, 4, 16, 64};
+    private static final int PUT_PERCENT = 10;
+
+    public static void main(String[] args) throws InterruptedException {
+        int capacity = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        long millisPerRun = args.length > 1 ? Long.parseLong(args[1]) : 2_000;
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+        System.out.printf("capacity=%d, %d%% puts, %d ms per run%n",
+            capacity, PUT_PERCENT, millisPerRun);
+        System.out.printf("%8s %8s %14s%n", "segments", "threads", "ops/sec");
+        for (int segments : SEGMENT_COUNTS) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double throughput = run(capacity, segments, threads, millisPerRun);
+                System.out.printf("%8d %8d %14.0f%n", segments, threads, throughput);
+            }
+        }
+    }
+
+    private static double run(int capacity, int segments, int threads, long millis)
+        throws InterruptedException {
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer<>(capacity, 3600, segments);
+        // Key space twice the capacity, so about half the gets miss and puts evict.
+        int keySpace = capacity * 2;
+        for (int i = 0; i < capacity; i++) {
+            buffer.put(new TestObject(i));
+        }
+
+        LongAdder operations = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int worker = 0; worker < threads; worker++) {
+            workers[worker] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long count = 0;
+                while (System.currentTimeMillis() < deadline[0]) {
+                    int key = random.nextInt(keySpace);
+                    if (random.nextInt(100) < PUT_PERCENT) {
+                        buffer.put(new TestObject(key));
+                    } else {
+                        try {
+                            buffer.get(String.valueOf(key));
+                        } catch (NoSuchElementException ignored) {
+                        }
+                    }
+                    count++;
+                }
+                operations.add(count);
+            });
+            workers[worker].start();
+        }
+
+        deadline[0] = System.currentTimeMillis() + millis;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return operations.sum() * 1000.0 / millis;
+    }
+}
@@ -0,0 +1,202 @@
+package cpen221.mp3;
+
+import cpen221.mp3.fsftbuffer.Eviction;
+import cpen221.mp3.fsftbuffer.EvictionPolicy;
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class EvictionPolicyTests {
+
+    private static FSFTBuffer<TestObject> buffer(Eviction eviction, int capacity) {
+        return new FSFTBuffer.Builder<TestObject>()
+            .withCapacity(capacity)
+            .withTimeout(100)
+            .withEvictionPolicy(eviction)
+            .build();
+    }
+
+    private static boolean getOrPut(FSFTBuffer<TestObject> buffer, int id) {
+        try {
+            buffer.get(String.valueOf(id));
+            return true;
+        } catch (NoSuchElementException missed) {
+            buffer.put(new TestObject(id));
+            return false;
+        }
+    }
+
+    /**
+     * Uses a set of hot objects several times each, then scans through many
+     * objects that are each used only once.
+     *
+     * @return how many of the hot objects are still in the buffer after the scan
+     */
+    private static int hotAfterScan(FSFTBuffer<TestObject> buffer, int hotObjects) {
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < hotObjects; i++) {
+                getOrPut(buffer, i);
+            }
+        }
+        for (int i = 1000; i < 2000; i++) {
+            getOrPut(buffer, i);
+        }
+        int hits = 0;
+        for (int i = 0; i < hotObjects; i++) {
+            if (buffer.touch(String.valueOf(i))) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Keeps using a set of hot objects while scanning through many
+     * objects that are each used only once.
+     *
+     * @return how many of the uses of hot objects found them in the buffer
+     */
+    private static int hotHitsDuringScan(FSFTBuffer<TestObject> buffer, int hotObjects) {
+        int hits = 0;
+        for (int i = 1000; i < 3000; i++) {
+            if (getOrPut(buffer, i % hotObjects)) {
+                hits++;
+            }
+            getOrPut(buffer, i);
+        }
+        return hits;
+    }
+
+    @Test
+    public void lruIsFlushedByScan() {
+        assertEquals(0, hotAfterScan(buffer(Eviction.LRU, 50), 40));
+        assertEquals(0, hotHitsDuringScan(buffer(Eviction.LRU, 50), 40));
+    }
+
+    @Test
+    public void slruKeepsRepeatedObjects() {
+        assertEquals(40, hotAfterScan(buffer(Eviction.SLRU, 50), 40));
+    }
+
+    @Test
+    public void tinyLfuKeepsFrequentObjects() {
+        assertTrue(hotHitsDuringScan(buffer(Eviction.W_TINY_LFU, 50), 40) > 1900);
+    }
+
+    @Test
+    public void tinyLfuLearnsFromFilteredMisses() {
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer.Builder<TestObject>()
+            .withCapacity(50)
+            .withTimeout(100)
+            .withEvictionPolicy(Eviction.W_TINY_LFU)
+            .withMissFilter(50)
+            .build();
+        assertTrue(hotHitsDuringScan(buffer, 40) > 1900);
+    }
+
+    @Test
+    public void tinyLfuAdmitsNewObjects() {
+        FSFTBuffer<TestObject> buffer = buffer(Eviction.W_TINY_LFU, 1);
+        assertTrue(buffer.put(new TestObject(1)));
+        assertTrue(buffer.put(new TestObject(2)));
+        assertTrue(buffer.touch("2"));
+        assertFalse(buffer.touch("1"));
+    }
+
+    @Test
+    public void tinyLfuJudgesEveryObjectLeavingTheWindow() {
+        // Scan objects weigh five, so each one pushes several objects out of the window.
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer.Builder<TestObject>()
+            .withMaximumWeight(400, t -> Integer.parseInt(t.id()) >= 1000 ? 5 : 1)
+            .withTimeout(100)
+            .withEvictionPolicy(Eviction.W_TINY_LFU)
+            .build();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 300; i++) {
+                getOrPut(buffer, i);
+            }
+        }
+        for (int i = 1000; i < 1400; i++) {
+            getOrPut(buffer, i);
+        }
+        int hits = 0;
+        for (int i = 0; i < 300; i++) {
+            if (buffer.touch(String.valueOf(i))) {
+                hits++;
+            }
+        }
+        assertTrue(hits > 290);
+    }
+
+    @Test
+    public void arcKeepsRepeatedObjects() {
+        assertEquals(40, hotAfterScan(buffer(Eviction.ARC, 50), 40));
+    }
+
+    @Test
+    public void arcActsLikeLruForObjectsUsedOnce() {
+        FSFTBuffer<TestObject> buffer = buffer(Eviction.ARC, 2);
+        assertTrue(buffer.put(new TestObject(1)));
+        assertTrue(buffer.put(new TestObject(2)));
+        assertTrue(buffer.put(new TestObject(3)));
+        assertFalse(buffer.touch("1"));
+        assertTrue(buffer.touch("2"));
+        assertTrue(buffer.touch("3"));
+    }
+
+    /**
+     * Evicts objects in the order they were added, however they are used.
+     */
+    private static class FifoPolicy implements EvictionPolicy {
+        private final LinkedHashSet<String> order = new LinkedHashSet<>();
+        private final List<String> removed = new ArrayList<>();
+
+        public void recordInsert(String id, int weight) {
+            order.add(id);
+        }
+
+        public void recordAccess(String id) {
+        }
+
+        public void recordRemoval(String id) {
+            order.remove(id);
+            removed.add(id);
+        }
+
+        public String victim() {
+            return order.iterator().next();
+        }
+    }
+
+    @Test
+    public void customPolicyChoosesVictimsById() {
+        List<FifoPolicy> policies = new ArrayList<>();
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer.Builder<TestObject>()
+            .withCapacity(2)
+            .withTimeout(100)
+            .withEvictionPolicy(segmentWeight -> {
+                FifoPolicy policy = new FifoPolicy();
+                policies.add(policy);
+                return policy;
+            })
+            .build();
+        assertTrue(buffer.put(new TestObject(1)));
+        assertTrue(buffer.put(new TestObject(2)));
+        assertTrue(buffer.touch("1"));
+        assertTrue(buffer.put(new TestObject(3)));
+
+        // LRU would have kept 1, since it was used after 2.
+        assertFalse(buffer.touch("1"));
+        assertTrue(buffer.touch("2"));
+        assertEquals(1, policies.size());
+        assertEquals(List.of("1"), policies.get(0).removed);
+    }
+}
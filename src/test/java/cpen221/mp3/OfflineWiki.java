@@ -0,0 +1,209 @@
+package cpen221.mp3;
+
+import cpen221.mp3.wikimediator.WikiSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A synthetic wiki of pages titled "Page 0" to "Page n-1", for running a WikiMediator
+ * without a network, so that benchmarks measure the mediator rather than Wikipedia and
+ * tests do not depend on the live site.
+ * Page i links to pages i + k*k + 1 for k from 0 up to the number of links per page,
+ * wrapping around, so that some pages are reached from many others, and searches return
+ * consecutive titles starting from one that depends on the query.
+ * Tests can give pages other texts, count the calls made to the wiki, and hold searches
+ * back to make them finish in a chosen order.
+ */
+public class OfflineWiki implements WikiSource {
+    private static final String PREFIX = "Page ";
+
+    private final int pages;
+    private final int linksPerPage;
+    private final ConcurrentHashMap<String, String> texts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> pageFetches = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> failures = new ConcurrentHashMap<>();
+    private final List<Integer> searchLimits = Collections.synchronizedList(new ArrayList<>());
+    private volatile int heldLimit = -1;
+    private volatile CountDownLatch heldStarted;
+    private volatile CountDownLatch heldRelease;
+
+    /* Representation Invariant */
+    // pages and linksPerPage are positive, and linksPerPage <= pages.
+    // heldStarted and heldRelease are non-null if heldLimit is not -1.
+
+    /* Abstraction Function */
+    // an OfflineWiki is the wiki of pages titled PREFIX + i for i from 0 to pages - 1,
+    // where page i links to page (i + k*k + 1) mod pages for k from 0 to linksPerPage - 1,
+    // and of the pages in texts, whose texts replace any generated ones.
+    // pageFetches counts the calls to getPageText for each title, and searchLimits lists
+    // the limit of every search, in the order they started.
+    // The next failures.get(t) fetches of title t throw instead of answering.
+    // Searches with limit heldLimit wait for heldRelease before answering.
+
+    /* Thread Safety Argument */
+    // The wiki's structure is immutable, texts, pageFetches and failures are concurrent
+    // maps, and searchLimits is a synchronized list. Tests set heldLimit and its latches
+    // before the searches they hold start, and the fields are volatile so searches see them.
+
+    /**
+     * @param pages        the number of pages in the wiki, a positive integer
+     * @param linksPerPage the number of links on each page, from 1 to {@code pages}
+     */
+    public OfflineWiki(int pages, int linksPerPage) {
+        this.pages = pages;
+        this.linksPerPage = linksPerPage;
+    }
+
+    /**
+     * @param page a page number from 0 to the number of pages - 1
+     * @return the title of the page
+     */
+    public static String title(int page) {
+        return PREFIX + page;
+    }
+
+    /**
+     * Gives a page a text, replacing its generated one, or adding a page that is not
+     * numbered like the others.
+     *
+     * @param pageTitle the title of the page, non-null
+     * @param text      the text of the page, non-null
+     * @return this wiki
+     */
+    public OfflineWiki withPageText(String pageTitle, String text) {
+        texts.put(pageTitle, text);
+        return this;
+    }
+
+    /**
+     * Makes every search with the given limit wait until {@code release} counts down,
+     * so that a test can make another search finish first.
+     *
+     * @param limit   the limit of the searches to hold back
+     * @param release lets the held searches answer once it reaches zero, non-null
+     * @return a latch that counts down once the first held search has started
+     */
+    public CountDownLatch holdSearches(int limit, CountDownLatch release) {
+        CountDownLatch started = new CountDownLatch(1);
+        heldStarted = started;
+        heldRelease = release;
+        heldLimit = limit;
+        return started;
+    }
+
+    /**
+     * Makes the next fetches of a page throw, as if the wiki could not be reached.
+     *
+     * @param pageTitle the title of the page, non-null
+     * @param times     the number of fetches that fail, a positive integer
+     * @return this wiki
+     */
+    public OfflineWiki failPageFetches(String pageTitle, int times) {
+        failures.put(pageTitle, times);
+        return this;
+    }
+
+    /**
+     * @param pageTitle a non-null title
+     * @return the number of times getPageText was called for {@code pageTitle}
+     */
+    public int pageFetches(String pageTitle) {
+        return pageFetches.getOrDefault(pageTitle, 0);
+    }
+
+    /**
+     * @return the limits of the searches made so far, in the order they started
+     */
+    public List<Integer> searchLimits() {
+        synchronized (searchLimits) {
+            return new ArrayList<>(searchLimits);
+        }
+    }
+
+    @Override
+    public List<String> search(String query, int limit) {
+        searchLimits.add(limit);
+        if (limit == heldLimit) {
+            heldStarted.countDown();
+            try {
+                heldRelease.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<String> titles = new ArrayList<>();
+        int first = Math.floorMod(query.hashCode(), pages);
+        for (int i = 0; i < Math.min(limit, pages); i++) {
+            titles.add(title((first + i) % pages));
+        }
+        return titles;
+    }
+
+    @Override
+    public String getPageText(String pageTitle) {
+        pageFetches.merge(pageTitle, 1, Integer::sum);
+        Integer failuresLeft = failures.computeIfPresent(pageTitle, (t, left) -> left - 1);
+        if (failuresLeft != null && failuresLeft >= 0) {
+            throw new IllegalStateException("Could not reach the wiki for " + pageTitle);
+        }
+        String given = texts.get(pageTitle);
+        if (given != null) {
+            return given;
+        }
+        int page = pageNumber(pageTitle);
+        if (page < 0) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder("'''").append(pageTitle).append("''' links to");
+        for (String link : getLinksOnPage(pageTitle)) {
+            text.append(" [[").append(link).append("]]");
+        }
+        return text.append(".\n").toString();
+    }
+
+    @Override
+    public List<String> getLinksOnPage(String pageTitle) {
+        int page = pageNumber(pageTitle);
+        List<String> links = new ArrayList<>();
+        if (page < 0) {
+            return links;
+        }
+        for (long k = 0; k < linksPerPage; k++) {
+            links.add(title((int) ((page + k * k + 1) % pages)));
+        }
+        return links;
+    }
+
+    @Override
+    public List<String> whatLinksHere(String pageTitle) {
+        int page = pageNumber(pageTitle);
+        List<String> links = new ArrayList<>();
+        if (page < 0) {
+            return links;
+        }
+        for (long k = 0; k < linksPerPage; k++) {
+            links.add(title((int) Math.floorMod(page - k * k - 1, (long) pages)));
+        }
+        return links;
+    }
+
+    /**
+     * @param pageTitle a non-null title
+     * @return the number of the page with that title, or -1 if there is no such page
+     */
+    private int pageNumber(String pageTitle) {
+        if (!pageTitle.startsWith(PREFIX)) {
+            return -1;
+        }
+        try {
+            int page = Integer.parseInt(pageTitle.substring(PREFIX.length()));
+            return page >= 0 && page < pages ? page : -1;
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package cpen221.mp3;
+
+import cpen221.mp3.wikimediator.WikiPage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Memory versus CPU benchmark for compressed WikiPages.
+ * For each compression level it prints the average stored size of a page, how many pages
+ * fit in a cache bounded by WikiPage.UTF8_WEIGHER, and the time spent compressing a page
+ * when it is cached and inflating it on each cache hit.
+ * The pages are synthetic wiki markup unless files holding real page texts are given.
+ * Run with: java cpen221.mp3.PageCompressionBenchmark [cacheMegabytes] [pageFile...]
+ */
+public class PageCompressionBenchmark {
+    private static final int[] LEVELS = {0, 1, 3, 6, 9};
+    private static final int PAGES = 200;
+    private static final int ROUNDS = 5;
+
+    private static final String[] WORDS = {
+        "the", "of", "and", "in", "was", "city", "river", "century", "population", "war",
+        "university", "born", "album", "team", "season", "church", "railway", "district",
+        "government", "history", "national", "first", "during", "species", "film", "king"
+    };
+
+    public static void main(String[] args) throws IOException {
+        long cacheBytes = (args.length > 0 ? Long.parseLong(args[0]) : 64) << 20;
+        List<String> texts = new ArrayList<>();
+        for (int arg = 1; arg < args.length; arg++) {
+            texts.add(Files.readString(Path.of(args[arg])));
+        }
+        if (texts.isEmpty()) {
+            Random random = new Random(221);
+            for (int page = 0; page < PAGES; page++) {
+                texts.add(syntheticPage(random));
+            }
+        }
+
+        System.out.printf("%d pages, %d MiB cache%n", texts.size(), cacheBytes >> 20);
+        System.out.printf("%6s %12s %8s %14s %14s %14s%n", "level", "bytes/page", "ratio",
+            "pages cached", "put us/page", "get us/page");
+        long plainBytes = 0;
+        for (String text : texts) {
+            plainBytes += text.getBytes(StandardCharsets.UTF_8).length;
+        }
+        for (int level : LEVELS) {
+            run(texts, level, cacheBytes, plainBytes);
+        }
+    }
+
+    /**
+     * Caches every text at a compression level, 0 meaning uncompressed, and prints the results.
+     */
+    private static void run(List<String> texts, int level, long cacheBytes, long plainBytes) {
+        WikiPage[] pages = new WikiPage[texts.size()];
+        long storedBytes = 0;
+        long putNanos = 0;
+        long getNanos = 0;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int page = 0; page < pages.length; page++) {
+                String title = "Page " + page;
+                pages[page] = level == 0
+                    ? new WikiPage(title, texts.get(page))
+                    : WikiPage.compressed(title, texts.get(page), level);
+            }
+            putNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (WikiPage page : pages) {
+                checksum += page.getPageText().length();
+            }
+            getNanos += System.nanoTime() - start;
+        }
+        for (WikiPage page : pages) {
+            storedBytes += WikiPage.UTF8_WEIGHER.weigh(page);
+        }
+
+        double bytesPerPage = (double) storedBytes / pages.length;
+        double operations = (double) ROUNDS * pages.length;
+        System.out.printf("%6s %12.0f %8.2f %14.0f %14.1f %14.1f%n",
+            level == 0 ? "none" : String.valueOf(level), bytesPerPage,
+            (double) plainBytes / storedBytes, cacheBytes / bytesPerPage,
+            putNanos / operations / 1000, getNanos / operations / 1000);
+        if (checksum == 0) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * @return about 20 KB of text that looks like wiki markup: templates, links,
+     * references and prose drawn from a small vocabulary
+     */
+    private static String syntheticPage(Random random) {
+        StringBuilder text = new StringBuilder();
+        text.append("{{Infobox settlement\n| name = ").append(word(random))
+            .append("\n| population_total = ").append(random.nextInt(1_000_000))
+            .append("\n}}\n");
+        while (text.length() < 20_000) {
+            text.append("== ").append(word(random)).append(" ==\n");
+            for (int sentence = 0; sentence < 8; sentence++) {
+                for (int word = 0; word < 12; word++) {
+                    if (random.nextInt(8) == 0) {
+                        text.append("[[").append(word(random)).append(' ')
+                            .append(word(random)).append("]] ");
+                    } else {
+                        text.append(word(random)).append(' ');
+                    }
+                }
+                text.append(random.nextInt(2100)).append(".<ref>{{cite web |url=https://")
+                    .append(word(random)).append(".org/").append(random.nextInt(10_000))
+                    .append(" |title=").append(word(random)).append("}}</ref>\n");
+            }
+        }
+        return text.toString();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
@@ -126,4 +126,46 @@ public class Task2Tests {
         assertFalse(interrupted);
         assertEquals(get.lastIdFound, capacity - 1);
     }
+
+    @Test
+    public void segmentedConcurrentPutAndGet() {
+        int capacity = 1000;
+        int timeout = 10;
+        boolean interrupted = false;
+        // LRU is per segment, so leave headroom for ids that hash unevenly.
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer<>(2 * capacity, timeout, 16);
+
+        Thread putterA = new Thread(() -> {
+            for (int i = 0; i < capacity / 2; i++) {
+                buffer.put(new TestObject(i));
+            }
+        });
+        Thread putterB = new Thread(() -> {
+            for (int i = capacity / 2; i < capacity; i++) {
+                buffer.put(new TestObject(i));
+            }
+        });
+        BufferGetter getA = new BufferGetter(buffer, 0, capacity / 2 - 1);
+        BufferGetter getB = new BufferGetter(buffer, capacity / 2, capacity - 1);
+        Thread getterA = new Thread(getA);
+        Thread getterB = new Thread(getB);
+
+        getterA.start();
+        getterB.start();
+        putterA.start();
+        putterB.start();
+
+        try {
+            putterA.join();
+            putterB.join();
+            getterA.join();
+            getterB.join();
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+
+        assertFalse(interrupted);
+        assertEquals(capacity / 2 - 1, getA.lastIdFound);
+        assertEquals(capacity - 1, getB.lastIdFound);
+    }
 }
@@ -1,17 +1,30 @@
 package cpen221.mp3;
 
+import cpen221.mp3.fsftbuffer.CacheStats;
+import cpen221.mp3.fsftbuffer.FakeTicker;
 import cpen221.mp3.wikimediator.WikiMediator;
+import cpen221.mp3.wikimediator.WikiPage;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.fastily.jwiki.core.Wiki;
 
@@ -33,6 +46,16 @@ public class Task3Tests {
         clearCache();
     }
 
+    /**
+     * @return the path of a new, empty request log, so that a mediator neither replays
+     * nor leaves behind the requests of other tests
+     */
+    private static String temporaryLog() throws IOException {
+        Path log = Files.createTempFile("requests", ".log");
+        log.toFile().deleteOnExit();
+        return log.toString();
+    }
+
     @Test
     public void basicWikiMediator() {
         int capacity = 5;
@@ -359,4 +382,212 @@ public class Task3Tests {
 
         clearCache();
     }
+
+    @Test
+    public void asyncRequests() throws IOException {
+        OfflineWiki wiki = new OfflineWiki(10, 2);
+        WikiMediator mediator = new WikiMediator.Builder()
+            .withWikiSource(wiki)
+            .withRequestLog(temporaryLog())
+            .build();
+        String title = OfflineWiki.title(1);
+
+        CompletableFuture<List<String>> search = mediator.searchAsync("A", 1);
+        CompletableFuture<String> page = mediator.getPageAsync(title);
+
+        assertEquals(wiki.search("A", 1), search.join());
+        assertEquals(wiki.getPageText(title), page.join());
+        assertEquals(Arrays.asList("A", title), mediator.zeitgeistAsync(2).join());
+        assertEquals(4, (int) mediator.windowedPeakLoadAsync().join());
+    }
+
+    @Test
+    public void cancelledAsyncRequestNeverRuns() throws InterruptedException, IOException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        OfflineWiki wiki = new OfflineWiki(10, 2);
+        WikiMediator mediator = new WikiMediator.Builder()
+            .withWikiSource(wiki)
+            .withRequestLog(temporaryLog())
+            .withExecutor(executor)
+            .build();
+
+        CompletableFuture<String> page = mediator.getPageAsync(OfflineWiki.title(1));
+        assertTrue(page.cancel(false));
+        blocked.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertEquals(0, mediator.cacheStats().loadSuccessCount());
+        assertEquals(0, wiki.pageFetches(OfflineWiki.title(1)));
+        assertEquals(1, mediator.zeitgeist(1).size());
+    }
+
+    @Test
+    public void asyncCountingRequestsAreLoggedByTheCaller()
+        throws InterruptedException, IOException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        WikiMediator mediator = new WikiMediator.Builder()
+            .withWikiSource(new OfflineWiki(10, 2))
+            .withRequestLog(temporaryLog())
+            .withExecutor(executor)
+            .build();
+
+        assertTrue(mediator.zeitgeistAsync(1).isDone());
+        CompletableFuture<List<String>> trending = mediator.trendingAsync(60, 1);
+        CompletableFuture<Integer> peakLoad = mediator.windowedPeakLoadAsync(60);
+        assertFalse(trending.isDone());
+        assertFalse(peakLoad.isDone());
+        assertEquals(4, mediator.windowedPeakLoad(60));
+
+        blocked.countDown();
+        assertEquals(3, (int) peakLoad.join());
+        assertEquals(0, trending.join().size());
+        executor.shutdown();
+    }
+
+    @Test
+    public void warmUpFetchesMostRequestedPages() throws IOException {
+        OfflineWiki wiki = new OfflineWiki(10, 2);
+        String log = temporaryLog();
+        String a = OfflineWiki.title(1);
+        String b = OfflineWiki.title(2);
+        WikiMediator mediator = new WikiMediator.Builder()
+            .withWikiSource(wiki)
+            .withRequestLog(log)
+            .build();
+        mediator.getPage(a);
+        mediator.getPage(b);
+        mediator.getPage(b);
+
+        WikiMediator restarted = new WikiMediator.Builder()
+            .withWikiSource(wiki)
+            .withRequestLog(log)
+            .withWarmUp(1, 2, 30)
+            .build();
+        CacheStats warmed = restarted.cacheStats();
+        assertEquals(1, warmed.loadSuccessCount());
+        assertEquals(2, wiki.pageFetches(b));
+        assertEquals(1, wiki.pageFetches(a));
+
+        restarted.getPage(b);
+        assertEquals(1, restarted.cacheStats().minus(warmed).hitCount());
+    }
+
+    @Test
+    public void zeitgeistCountsReplayedRequests() throws IOException {
+        String log = temporaryLog();
+        PrintWriter writer = new PrintWriter(log);
+        writer.print("SEARCH Cat 1000\n"
+            + "GET_PAGE Dog 2000\n"
+            + "ZEITGEIST 3000\n"
+            + "GET_PAGE Cat 4000\n"
+            + "SEARCH Blue whale 5000\n");
+        writer.close();
+
+        WikiMediator mediator = new WikiMediator.Builder()
+            .withWikiSource(new OfflineWiki(10, 2))
+            .withRequestLog(log)
+            .build();
+        assertEquals(Arrays.asList("Cat", "Blue whale"), mediator.zeitgeist(2));
+        assertEquals(Arrays.asList("Cat", "Blue whale", "Dog"), mediator.zeitgeist(5));
+    }
+
+    @Test
+    public void onlyCurrentEventTemplatesShortenStaleness() throws IOException {
+        HashMap<String, String> texts = new HashMap<>();
+        texts.put("Storm", "{{Current|date=October 2026}} A storm is passing.");
+        texts.put("Drivers", "{{Current Formula One drivers}} A list of drivers.");
+        texts.put("Candidates", "{{Currently running candidates}} A list of candidates.");
+        OfflineWiki wiki = new OfflineWiki(10, 2);
+        texts.forEach(wiki::withPageText);
+        FakeTicker ticker = new FakeTicker(0);
+        WikiMediator mediator = new WikiMediator.Builder()
+            .withWikiSource(wiki)
+            .withRequestLog(temporaryLog())
+            .withTicker(ticker)
+            .withStalenessInterval(3600)
+            .withCurrentEventStalenessInterval(60)
+            .withPageCompression(6)
+            .build();
+
+        for (String title : texts.keySet()) {
+            assertEquals(texts.get(title), mediator.getPage(title));
+        }
+        ticker.advance(120, TimeUnit.SECONDS);
+        for (String title : texts.keySet()) {
+            assertEquals(texts.get(title), mediator.getPage(title));
+        }
+
+        assertEquals(2, wiki.pageFetches("Storm"));
+        assertEquals(1, wiki.pageFetches("Drivers"));
+        assertEquals(1, wiki.pageFetches("Candidates"));
+
+        WikiPage storm = WikiPage.compressed("Storm", texts.get("Storm"), 6).asCurrentEvent();
+        WikiPage copy = WikiPage.SERIALIZER.deserialize(WikiPage.SERIALIZER.serialize(storm));
+        assertTrue(copy.isCurrentEvent());
+        assertEquals(texts.get("Storm"), copy.getPageText());
+        assertFalse(WikiPage.SERIALIZER.deserialize(WikiPage.SERIALIZER.serialize(
+            new WikiPage("Drivers", texts.get("Drivers")))).isCurrentEvent());
+    }
+
+    @Test
+    public void slowSmallerSearchDoesNotReplaceLargerResult()
+        throws InterruptedException, IOException {
+        OfflineWiki wiki = new OfflineWiki(100, 2);
+        CountDownLatch largerSearchDone = new CountDownLatch(1);
+        CountDownLatch smallerSearchStarted = wiki.holdSearches(20, largerSearchDone);
+        WikiMediator mediator = new WikiMediator.Builder()
+            .withWikiSource(wiki)
+            .withRequestLog(temporaryLog())
+            .withTicker(new FakeTicker(0))
+            .build();
+
+        assertEquals(5, mediator.search("Moose", 5).size());
+        Thread smaller = new Thread(() -> mediator.search("Moose", 20));
+        smaller.start();
+        assertTrue(smallerSearchStarted.await(10, TimeUnit.SECONDS));
+        assertEquals(50, mediator.search("Moose", 50).size());
+        largerSearchDone.countDown();
+        smaller.join();
+
+        assertEquals(50, mediator.search("Moose", 50).size());
+        assertEquals(Arrays.asList(5, 20, 50), wiki.searchLimits());
+    }
+
+    @Test
+    public void failedFetchIsNotCachedAsMissingPage() throws IOException {
+        OfflineWiki wiki = new OfflineWiki(10, 2);
+        String title = OfflineWiki.title(3);
+        wiki.failPageFetches(title, 1);
+        WikiMediator mediator = new WikiMediator.Builder()
+            .withWikiSource(wiki)
+            .withRequestLog(temporaryLog())
+            .withTicker(new FakeTicker(0))
+            .build();
+
+        assertEquals("", mediator.getPage(title));
+        assertEquals(wiki.getPageText(title), mediator.getPage(title));
+        assertEquals(3, wiki.pageFetches(title));
+
+        // A page that does not exist is remembered, and not fetched again.
+        assertEquals("", mediator.getPage("Moose"));
+        assertEquals("", mediator.getPage("Moose"));
+        assertEquals(1, wiki.pageFetches("Moose"));
+    }
 }
@@ -1,9 +1,12 @@
 package cpen221.mp3;
 
+import cpen221.mp3.fsftbuffer.FakeTicker;
 import cpen221.mp3.wikimediator.WikiMediator;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.junit.jupiter.api.*;
@@ -118,4 +121,101 @@ public class Task5Tests {
             System.out.println("Timed Out");
         }
     }
+
+    @Test
+    public void repeatedPathsReadLinksFromCache() throws TimeoutException {
+        CountingWiki wiki = new CountingWiki();
+        WikiMediator mediator = new WikiMediator.Builder().withWikiSource(wiki).build();
+        List<String> path = Arrays.asList("Page 0", "Page 1", "Page 3");
+
+        assertEquals(path, mediator.shortestPath("Page 0", "Page 3", 10));
+        assertEquals(path, mediator.shortestPath("Page 0", "Page 3", 10));
+
+        assertEquals(1, wiki.linkFetches("Page 0"));
+        assertEquals(1, wiki.backlinkFetches("Page 3"));
+
+        // Links to a page are not answered from the links on it, nor the other way round.
+        assertEquals(Arrays.asList("Page 97", "Page 98", "Page 0"),
+            mediator.shortestPath("Page 97", "Page 0", 10));
+        assertEquals(1, wiki.linkFetches("Page 0"));
+        assertEquals(1, wiki.backlinkFetches("Page 0"));
+    }
+
+    @Test
+    public void emptyLinksAreNotCached() {
+        CountingWiki wiki = new CountingWiki();
+        WikiMediator mediator = new WikiMediator.Builder().withWikiSource(wiki).build();
+
+        assertThrows(TimeoutException.class, () -> mediator.shortestPath("Nowhere", "Page 3", 1));
+        assertTrue(wiki.linkFetches("Nowhere") > 1);
+    }
+
+    @Test
+    public void cachedLinksGoStale() throws TimeoutException {
+        CountingWiki wiki = new CountingWiki();
+        FakeTicker ticker = new FakeTicker(0);
+        WikiMediator mediator = new WikiMediator.Builder()
+            .withWikiSource(wiki)
+            .withTicker(ticker)
+            .withLinkCache(1000, 60)
+            .build();
+        List<String> path = Arrays.asList("Page 0", "Page 1");
+
+        assertEquals(path, mediator.shortestPath("Page 0", "Page 1", 10));
+        ticker.advance(59, TimeUnit.SECONDS);
+        assertEquals(path, mediator.shortestPath("Page 0", "Page 1", 10));
+        assertEquals(1, wiki.linkFetches("Page 0"));
+
+        ticker.advance(2, TimeUnit.SECONDS);
+        assertEquals(path, mediator.shortestPath("Page 0", "Page 1", 10));
+        assertEquals(2, wiki.linkFetches("Page 0"));
+    }
+
+    @Test
+    public void smallLinkCacheStartsNewTitleTables() throws TimeoutException {
+        WikiMediator mediator = new WikiMediator.Builder()
+            .withWikiSource(new CountingWiki())
+            .withLinkCache(8, 60)
+            .build();
+
+        for (int start = 0; start < 50; start += 10) {
+            assertEquals(Arrays.asList("Page " + start, "Page " + (start + 1),
+                    "Page " + (start + 3)),
+                mediator.shortestPath("Page " + start, "Page " + (start + 3), 10));
+        }
+    }
+
+    /**
+     * A wiki of 100 pages, where page i links to pages i+1, i+2, i+5 and i+10,
+     * that counts how often the links on and to each page are asked for.
+     */
+    private static class CountingWiki extends OfflineWiki {
+        private final ConcurrentHashMap<String, Integer> linkFetches = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Integer> backlinkFetches =
+            new ConcurrentHashMap<>();
+
+        CountingWiki() {
+            super(100, 4);
+        }
+
+        @Override
+        public List<String> getLinksOnPage(String pageTitle) {
+            linkFetches.merge(pageTitle, 1, Integer::sum);
+            return super.getLinksOnPage(pageTitle);
+        }
+
+        @Override
+        public List<String> whatLinksHere(String pageTitle) {
+            backlinkFetches.merge(pageTitle, 1, Integer::sum);
+            return super.whatLinksHere(pageTitle);
+        }
+
+        int linkFetches(String pageTitle) {
+            return linkFetches.getOrDefault(pageTitle, 0);
+        }
+
+        int backlinkFetches(String pageTitle) {
+            return backlinkFetches.getOrDefault(pageTitle, 0);
+        }
+    }
 }
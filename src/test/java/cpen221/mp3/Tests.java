@@ -1,15 +1,38 @@
 package cpen221.mp3;
 
+import cpen221.mp3.fsftbuffer.CacheStats;
+import cpen221.mp3.fsftbuffer.CompactFSFTBuffer;
 import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.fsftbuffer.FakeTicker;
+import cpen221.mp3.wikimediator.SearchResult;
+import cpen221.mp3.wikimediator.WikiPage;
 
 
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class Tests {
     @Test
@@ -149,4 +172,627 @@ public class Tests {
         assertFalse(interrupted);
         assertTrue(gotItem);
     }
+
+    @Test
+    public void getMarksObjectAsUsed() {
+        int capacity = 10000;
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer<>(capacity, 100);
+
+        for (int i = 0; i < capacity; i++) {
+            buffer.put(new TestObject(i));
+        }
+        buffer.get("0");
+        buffer.put(new TestObject(capacity));
+
+        assertTrue(buffer.touch("0"));
+        assertFalse(buffer.touch("1"));
+        assertTrue(buffer.touch(String.valueOf(capacity)));
+    }
+
+    @Test
+    public void weightBoundedBuffer() {
+        // Each object weighs as much as its id.
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer.Builder<TestObject>()
+            .withMaximumWeight(10, t -> Integer.parseInt(t.id()))
+            .withTimeout(100)
+            .build();
+
+        assertTrue(buffer.put(new TestObject(2)));
+        assertTrue(buffer.put(new TestObject(3)));
+        assertTrue(buffer.put(new TestObject(4)));
+        buffer.get("2");
+
+        // 2 + 3 + 4 + 6 is over budget, so the least recently used objects go until it fits.
+        assertTrue(buffer.put(new TestObject(6)));
+        assertFalse(buffer.touch("3"));
+        assertFalse(buffer.touch("4"));
+        assertTrue(buffer.touch("2"));
+        assertTrue(buffer.touch("6"));
+
+        assertFalse(buffer.put(new TestObject(11)));
+        assertTrue(buffer.touch("2"));
+        assertTrue(buffer.touch("6"));
+    }
+
+    @Test
+    public void offHeapBuffer() {
+        FSFTBuffer<WikiPage> buffer = new FSFTBuffer.Builder<WikiPage>()
+            .withCapacity(2)
+            .withTimeout(100)
+            .withOffHeapStorage(WikiPage.SERIALIZER)
+            .build();
+
+        assertTrue(buffer.put(new WikiPage("Caf\u00e9", "na\u00efve \ud83d\ude00 text")));
+        assertEquals("na\u00efve \ud83d\ude00 text", buffer.get("Caf\u00e9").getPageText());
+        assertEquals("Caf\u00e9", buffer.get("Caf\u00e9").id());
+
+        assertTrue(buffer.update(new WikiPage("Caf\u00e9", "a much longer replacement text")));
+        assertEquals("a much longer replacement text", buffer.get("Caf\u00e9").getPageText());
+
+        assertTrue(buffer.put(new WikiPage("B", "")));
+        assertTrue(buffer.put(new WikiPage("C", "c")));
+        assertEquals("", buffer.get("B").getPageText());
+        assertThrows(NoSuchElementException.class, () -> buffer.get("Caf\u00e9"));
+    }
+
+    @Test
+    public void diskTierKeepsEvictedObjects() throws IOException {
+        Path file = Files.createTempDirectory("fsftbuffer").resolve("pages");
+        FSFTBuffer<WikiPage> buffer = new FSFTBuffer.Builder<WikiPage>()
+            .withCapacity(1)
+            .withTimeout(100)
+            .withDiskTier(file, WikiPage.SERIALIZER)
+            .build();
+
+        assertTrue(buffer.put(new WikiPage("A", "a")));
+        assertTrue(buffer.put(new WikiPage("B", "b")));
+        assertTrue(buffer.put(new WikiPage("C", "c")));
+
+        // A and B were pushed out of memory, but are still found on disk.
+        assertEquals("a", buffer.get("A").getPageText());
+        assertEquals("b", buffer.get("B").getPageText());
+        assertThrows(NoSuchElementException.class, () -> buffer.get("D"));
+
+        // A new buffer on the same file starts with what was on disk.
+        FSFTBuffer<WikiPage> restarted = new FSFTBuffer.Builder<WikiPage>()
+            .withCapacity(1)
+            .withTimeout(100)
+            .withDiskTier(file, WikiPage.SERIALIZER)
+            .build();
+        assertEquals("a", restarted.get("A").getPageText());
+        assertEquals("c", restarted.get("C").getPageText());
+        assertThrows(NoSuchElementException.class, () -> restarted.get("B"));
+    }
+
+    @Test
+    public void diskTierRemovesOldestObjectsOverItsBudget() throws IOException {
+        Path file = Files.createTempDirectory("fsftbuffer").resolve("pages");
+        int recordBytes = 2 * Integer.BYTES + Long.BYTES + 1
+            + WikiPage.SERIALIZER.serialize(new WikiPage("A", "a")).length;
+        FSFTBuffer<WikiPage> buffer = new FSFTBuffer.Builder<WikiPage>()
+            .withCapacity(1)
+            .withTimeout(100)
+            .withDiskTier(file, WikiPage.SERIALIZER, 2 * recordBytes)
+            .build();
+
+        for (String id : List.of("A", "B", "C", "D")) {
+            assertTrue(buffer.put(new WikiPage(id, id.toLowerCase())));
+        }
+
+        // A, B and C were pushed out of memory, but only two of them fit on disk.
+        assertThrows(NoSuchElementException.class, () -> buffer.get("A"));
+        assertEquals("b", buffer.get("B").getPageText());
+        assertEquals("c", buffer.get("C").getPageText());
+        assertThrows(IllegalArgumentException.class,
+            () -> new FSFTBuffer.Builder<WikiPage>().withDiskTier(file, WikiPage.SERIALIZER, 0));
+    }
+
+    @Test
+    public void cleanUpCompactsExpiredObjectsOutOfTheDiskTier() throws IOException {
+        Path file = Files.createTempDirectory("fsftbuffer").resolve("pages");
+        FakeTicker ticker = new FakeTicker(0);
+        FSFTBuffer<WikiPage> buffer = new FSFTBuffer.Builder<WikiPage>()
+            .withCapacity(1)
+            .withTimeout(10)
+            .withTicker(ticker)
+            .withDiskTier(file, WikiPage.SERIALIZER)
+            .build();
+        String text = "x".repeat(4096);
+        for (int page = 0; page < 300; page++) {
+            assertTrue(buffer.put(new WikiPage("Page " + page, text)));
+        }
+        assertTrue(Files.size(file) > 1 << 20);
+
+        ticker.advance(11, TimeUnit.SECONDS);
+        buffer.cleanUp();
+
+        assertEquals(0, Files.size(file));
+        assertThrows(NoSuchElementException.class, () -> buffer.get("Page 0"));
+    }
+
+    @Test
+    public void snapshotRestoresRemainingTimeAndUseOrder() throws IOException {
+        Path file = Files.createTempDirectory("fsftbuffer").resolve("snapshot");
+        FakeTicker ticker = new FakeTicker(1_000_000);
+        FSFTBuffer<WikiPage> buffer = new FSFTBuffer.Builder<WikiPage>()
+            .withCapacity(3)
+            .withTimeout(10)
+            .withTicker(ticker)
+            .withSnapshot(file, WikiPage.SERIALIZER)
+            .build();
+        buffer.put(new WikiPage("A", "a"));
+        ticker.advance(4, TimeUnit.SECONDS);
+        buffer.put(new WikiPage("B", "b"));
+        buffer.put(new WikiPage("C", "c"));
+        ticker.advance(1, TimeUnit.SECONDS);
+        buffer.get("A");
+        buffer.get("C");
+        assertEquals(3, buffer.snapshot());
+
+        // The restored buffer runs on a different clock, but A still has 5 seconds left.
+        FakeTicker restartedTicker = new FakeTicker(50_000_000);
+        FSFTBuffer<WikiPage> restarted = new FSFTBuffer.Builder<WikiPage>()
+            .withCapacity(3)
+            .withTimeout(10)
+            .withTicker(restartedTicker)
+            .withSnapshot(file, WikiPage.SERIALIZER)
+            .build();
+        assertEquals("c", restarted.get("C").getPageText());
+
+        // B was the least recently used, so it is the one evicted for D.
+        assertTrue(restarted.put(new WikiPage("D", "d")));
+        assertThrows(NoSuchElementException.class, () -> restarted.get("B"));
+
+        restartedTicker.advance(5, TimeUnit.SECONDS);
+        assertThrows(NoSuchElementException.class, () -> restarted.get("A"));
+        assertEquals("c", restarted.get("C").getPageText());
+    }
+
+    @Test
+    public void compactBufferEvictsLeastRecentlyUsedAndTimesOut() {
+        FakeTicker ticker = new FakeTicker(1_000_000);
+        CompactFSFTBuffer<TestObject> buffer = new CompactFSFTBuffer<>(2, 10, ticker);
+        assertTrue(buffer.put(new TestObject(1)));
+        assertTrue(buffer.put(new TestObject(2)));
+        assertEquals("1", buffer.get("1").id());
+        assertTrue(buffer.put(new TestObject(3)));
+        assertThrows(NoSuchElementException.class, () -> buffer.get("2"));
+
+        ticker.advance(9, TimeUnit.SECONDS);
+        assertTrue(buffer.touch("3"));
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertFalse(buffer.update(new TestObject(1)));
+        assertEquals("3", buffer.get("3").id());
+        buffer.cleanUp();
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void compactBufferReplacesStaleObjectsFirst() {
+        FakeTicker ticker = new FakeTicker(1_000_000);
+        CompactFSFTBuffer<TestObject> buffer = new CompactFSFTBuffer<>(2, 10, ticker);
+        assertTrue(buffer.put(new TestObject(1)));
+        ticker.advance(5, TimeUnit.SECONDS);
+        assertTrue(buffer.put(new TestObject(2)));
+        assertEquals("1", buffer.get("1").id());
+
+        // 1 is the most recently used, but it is stale, so it makes room instead of 2.
+        ticker.advance(6, TimeUnit.SECONDS);
+        assertTrue(buffer.put(new TestObject(3)));
+        assertEquals("2", buffer.get("2").id());
+        assertEquals(2, buffer.size());
+
+        // More objects go stale than cleanUp removes in one batch.
+        CompactFSFTBuffer<TestObject> large = new CompactFSFTBuffer<>(3000, 10, ticker);
+        for (int id = 0; id < 3000; id++) {
+            large.put(new TestObject(id));
+        }
+        ticker.advance(5, TimeUnit.SECONDS);
+        assertTrue(large.touch("7"));
+        ticker.advance(5, TimeUnit.SECONDS);
+        large.cleanUp();
+        assertEquals(1, large.size());
+        assertEquals("7", large.get("7").id());
+    }
+
+    @Test
+    public void compactBufferMatchesLinkedHashMap() {
+        int capacity = 100;
+        CompactFSFTBuffer<TestObject> buffer = new CompactFSFTBuffer<>(capacity, 3600);
+        Map<String, TestObject> expected = new LinkedHashMap<>(16, 0.75f, true);
+        Random random = new Random(221);
+        for (int operation = 0; operation < 100_000; operation++) {
+            TestObject object = new TestObject(random.nextInt(capacity * 3));
+            if (random.nextBoolean()) {
+                buffer.put(object);
+                // Putting an id that is already there does not count as a use.
+                if (!expected.containsKey(object.id())) {
+                    if (expected.size() == capacity) {
+                        expected.remove(expected.keySet().iterator().next());
+                    }
+                    expected.put(object.id(), object);
+                }
+            } else if (expected.get(object.id()) == null) {
+                assertThrows(NoSuchElementException.class, () -> buffer.get(object.id()));
+            } else {
+                assertEquals(object.id(), buffer.get(object.id()).id());
+            }
+        }
+        assertEquals(expected.size(), buffer.size());
+    }
+
+    @Test
+    public void compressedPages() {
+        String text = "{{Infobox}} [[Link]] text text text \u00e9\u00e9 ".repeat(200);
+        WikiPage plain = new WikiPage("Page", text);
+        WikiPage compressed = WikiPage.compressed("Page", text, 6);
+
+        assertTrue(compressed.isCompressed());
+        assertEquals(text, compressed.getPageText());
+        assertTrue(WikiPage.UTF8_WEIGHER.weigh(compressed) * 4
+            < WikiPage.UTF8_WEIGHER.weigh(plain));
+
+        WikiPage copy = WikiPage.SERIALIZER.deserialize(WikiPage.SERIALIZER.serialize(compressed));
+        assertTrue(copy.isCompressed());
+        assertEquals("Page", copy.id());
+        assertEquals(text, copy.getPageText());
+        assertEquals("", WikiPage.compressed("Empty", "", 1).getPageText());
+    }
+
+    @Test
+    public void concurrentMissesLoadOnce() throws InterruptedException {
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer<>(10, 100);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<TestObject> results = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                results.add(buffer.get("7", id -> {
+                    loads.incrementAndGet();
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new TestObject(Integer.parseInt(id));
+                }));
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(8, results.size());
+        for (TestObject result : results) {
+            assertTrue(result == results.get(0));
+        }
+        assertTrue(buffer.touch("7"));
+    }
+
+    @Test
+    public void failedLoadIsNotCached() {
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer<>(10, 100);
+        assertThrows(IllegalStateException.class, () -> buffer.get("1", id -> {
+            throw new IllegalStateException("upstream failed");
+        }));
+        assertFalse(buffer.touch("1"));
+        assertEquals("1", buffer.get("1", id -> new TestObject(1)).id());
+        assertTrue(buffer.touch("1"));
+    }
+
+    @Test
+    public void negativeEntriesSkipTheLoaderUntilTheyTimeOut() {
+        AtomicInteger loads = new AtomicInteger();
+        FakeTicker ticker = new FakeTicker(1_000_000);
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer.Builder<TestObject>()
+            .withTimeout(100)
+            .withTicker(ticker)
+            .withNegativeCaching(5, 10)
+            .build();
+        Function<String, TestObject> missing = id -> {
+            loads.incrementAndGet();
+            return null;
+        };
+
+        assertNull(buffer.get("1", missing));
+        assertNull(buffer.get("1", missing));
+        assertEquals(1, loads.get());
+
+        ticker.advance(5, TimeUnit.SECONDS);
+        assertNull(buffer.get("1", missing));
+        assertEquals(2, loads.get());
+
+        // Putting an object replaces its negative entry.
+        buffer.put(new TestObject(1));
+        assertEquals("1", buffer.get("1", missing).id());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void expiryGivesEachObjectItsOwnTimeout() {
+        FakeTicker ticker = new FakeTicker(1_000_000);
+        FSFTBuffer<WikiPage> buffer = new FSFTBuffer.Builder<WikiPage>()
+            .withTimeout(100)
+            .withTicker(ticker)
+            .withExpiry(page -> page.getPageText().startsWith("{{Current") ? 5 : 60)
+            .build();
+        buffer.put(new WikiPage("News", "{{Current}} text"));
+        buffer.put(new WikiPage("History", "text"));
+
+        ticker.advance(5, TimeUnit.SECONDS);
+        assertThrows(NoSuchElementException.class, () -> buffer.get("News"));
+        assertEquals("text", buffer.get("History").getPageText());
+
+        // An update computes the timeout again from the new object.
+        assertTrue(buffer.update(new WikiPage("History", "{{Current}} text")));
+        ticker.advance(5, TimeUnit.SECONDS);
+        assertThrows(NoSuchElementException.class, () -> buffer.get("History"));
+    }
+
+    @Test
+    public void peekDoesNotCountOrMarkObjectsAsUsed() {
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer<>(2, 100);
+        buffer.put(new TestObject(1));
+        buffer.put(new TestObject(2));
+
+        assertEquals("1", buffer.peek("1").id());
+        assertNull(buffer.peek("3"));
+        assertEquals(0, buffer.stats().hitCount());
+        assertEquals(0, buffer.stats().missCount());
+
+        // Peeking at 1 did not make it more recently used than 2.
+        buffer.put(new TestObject(3));
+        assertNull(buffer.peek("1"));
+        assertEquals("2", buffer.peek("2").id());
+    }
+
+    @Test
+    public void searchResultAnswersSmallerLimits() {
+        SearchResult full = new SearchResult("  Barack   Obama ", 3, List.of("A", "B", "C"));
+        assertEquals("barack obama", full.id());
+        assertEquals(SearchResult.key("barack obama"), full.id());
+        assertTrue(full.answers(2));
+        assertEquals(List.of("A", "B"), full.first(2));
+        assertFalse(full.answers(4));
+
+        // A search that ran out of titles answers any larger limit.
+        SearchResult exhausted = new SearchResult("Rare", 5, List.of("A", "B"));
+        assertTrue(exhausted.answers(50));
+        assertEquals(List.of("A", "B"), exhausted.first(50));
+    }
+
+    @Test
+    public void missFilterAnswersMostMissesAndTracksRemovals() {
+        FakeTicker ticker = new FakeTicker(1_000_000);
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer.Builder<TestObject>()
+            .withCapacity(200)
+            .withTimeout(10)
+            .withSegments(4)
+            .withTicker(ticker)
+            .withMissFilter(100)
+            .build();
+        for (int i = 0; i < 100; i++) {
+            buffer.put(new TestObject(i));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(String.valueOf(i), buffer.get(String.valueOf(i)).id());
+        }
+        for (int i = 100; i < 10_100; i++) {
+            String id = String.valueOf(i);
+            assertThrows(NoSuchElementException.class, () -> buffer.get(id));
+        }
+        CacheStats stats = buffer.stats();
+        assertEquals(10_000, stats.filteredMissCount() + stats.filterFalsePositiveCount());
+        assertTrue(stats.filterFalsePositiveRate() < 0.1);
+
+        // Objects that went stale are removed from the filter too.
+        ticker.advance(10, TimeUnit.SECONDS);
+        buffer.cleanUp();
+        for (int i = 0; i < 100; i++) {
+            String id = String.valueOf(i);
+            assertThrows(NoSuchElementException.class, () -> buffer.get(id));
+        }
+        assertTrue(buffer.stats().minus(stats).filteredMissCount() > 90);
+    }
+
+    @Test
+    public void removalListenerReportsEachCause() {
+        FakeTicker ticker = new FakeTicker(1_000_000);
+        List<String> removals = Collections.synchronizedList(new ArrayList<>());
+        FSFTBuffer<WikiPage> buffer = new FSFTBuffer.Builder<WikiPage>()
+            .withCapacity(2)
+            .withTimeout(10)
+            .withTicker(ticker)
+            .withRemovalListener((id, page, cause) ->
+                removals.add(cause + " " + id + " " + page.getPageText()), Runnable::run)
+            .build();
+        buffer.put(new WikiPage("A", "a1"));
+        buffer.put(new WikiPage("B", "b1"));
+        buffer.put(new WikiPage("C", "c1"));
+        assertEquals(List.of("SIZE A a1"), removals);
+
+        assertTrue(buffer.update(new WikiPage("B", "b2")));
+        assertEquals("REPLACED B b1", removals.get(1));
+
+        assertTrue(buffer.invalidate("B"));
+        assertFalse(buffer.invalidate("B"));
+        assertEquals("EXPLICIT B b2", removals.get(2));
+
+        ticker.advance(10, TimeUnit.SECONDS);
+        buffer.cleanUp();
+        assertEquals(List.of("SIZE A a1", "REPLACED B b1", "EXPLICIT B b2", "EXPIRED C c1"),
+            removals);
+    }
+
+    @Test
+    public void failedRemovalNotificationsAreCounted() {
+        List<String> removals = Collections.synchronizedList(new ArrayList<>());
+        FSFTBuffer<WikiPage> buffer = new FSFTBuffer.Builder<WikiPage>()
+            .withCapacity(10)
+            .withTimeout(10)
+            .withRemovalListener((id, page, cause) -> {
+                if (id.equals("A")) {
+                    throw new IllegalStateException("listener failed");
+                }
+                removals.add(id);
+            }, Runnable::run)
+            .build();
+        buffer.put(new WikiPage("A", "a"));
+        buffer.put(new WikiPage("B", "b"));
+
+        assertTrue(buffer.invalidate("A"));
+        assertTrue(buffer.invalidate("B"));
+        assertEquals(List.of("B"), removals);
+        assertEquals(1, buffer.stats().removalFailureCount());
+
+        FSFTBuffer<WikiPage> rejecting = new FSFTBuffer.Builder<WikiPage>()
+            .withCapacity(10)
+            .withTimeout(10)
+            .withRemovalListener((id, page, cause) -> removals.add(id), command -> {
+                throw new RejectedExecutionException();
+            })
+            .build();
+        rejecting.put(new WikiPage("C", "c"));
+        assertTrue(rejecting.invalidate("C"));
+        assertEquals(List.of("B"), removals);
+        assertEquals(1, rejecting.stats().removalFailureCount());
+    }
+
+    @Test
+    public void refreshAheadReloadsInBackground() {
+        AtomicInteger version = new AtomicInteger(1);
+        FakeTicker ticker = new FakeTicker(1_000_000);
+        FSFTBuffer<WikiPage> buffer = new FSFTBuffer.Builder<WikiPage>()
+            .withTimeout(2)
+            .withTicker(ticker)
+            .withRefreshAhead(0.5, 2,
+                id -> new WikiPage(id, "v" + version.incrementAndGet()), Runnable::run)
+            .build();
+        buffer.put(new WikiPage("A", "v1"));
+
+        // Not yet half way through the timeout, so nothing is reloaded.
+        assertEquals("v1", buffer.get("A").getPageText());
+        assertEquals(1, version.get());
+
+        ticker.advance(1200, TimeUnit.MILLISECONDS);
+        buffer.get("A");
+        assertEquals(2, version.get());
+        assertEquals("v2", buffer.get("A").getPageText());
+
+        // The reload restarted the timeout.
+        ticker.advance(1200, TimeUnit.MILLISECONDS);
+        assertTrue(buffer.touch("A"));
+    }
+
+    @Test
+    public void staleObjectsServedWhileReloading() throws InterruptedException {
+        CountDownLatch reload = new CountDownLatch(1);
+        FakeTicker ticker = new FakeTicker(1_000_000);
+        FSFTBuffer<WikiPage> buffer = new FSFTBuffer.Builder<WikiPage>()
+            .withTimeout(1)
+            .withTicker(ticker)
+            .withRefreshAhead(1, 2, id -> new WikiPage(id, "v2"), task -> new Thread(() -> {
+                try {
+                    reload.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                task.run();
+            }).start())
+            .build();
+        buffer.put(new WikiPage("A", "v1"));
+
+        ticker.advance(1200, TimeUnit.MILLISECONDS);
+        assertFalse(buffer.touch("A"));
+        assertEquals("v1", buffer.get("A").getPageText());
+        assertEquals("v1", buffer.get("A").getPageText());
+
+        reload.countDown();
+        Thread.sleep(200);
+        assertEquals("v2", buffer.get("A").getPageText());
+        assertTrue(buffer.touch("A"));
+    }
+
+    @Test
+    public void fakeTickerDrivesTimeouts() {
+        FakeTicker ticker = new FakeTicker(1_000_000);
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer.Builder<TestObject>()
+            .withTimeout(10)
+            .withTicker(ticker)
+            .build();
+        buffer.put(new TestObject(1));
+        buffer.put(new TestObject(2));
+
+        ticker.advance(9, TimeUnit.SECONDS);
+        assertTrue(buffer.touch("1"));
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertFalse(buffer.touch("2"));
+        assertThrows(NoSuchElementException.class, () -> buffer.get("2"));
+
+        // Touched at 9 seconds, so it goes stale at 19 seconds.
+        ticker.advance(8, TimeUnit.SECONDS);
+        assertEquals("1", buffer.get("1").id());
+        ticker.advance(1, TimeUnit.SECONDS);
+        buffer.cleanUp();
+        assertFalse(buffer.touch("1"));
+    }
+
+    @Test
+    public void statsCountHitsMissesEvictionsAndExpiries() {
+        FakeTicker ticker = new FakeTicker(1_000_000);
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer.Builder<TestObject>()
+            .withCapacity(2)
+            .withTimeout(10)
+            .withTicker(ticker)
+            .build();
+
+        buffer.put(new TestObject(1));
+        buffer.get("1");
+        assertThrows(NoSuchElementException.class, () -> buffer.get("2"));
+        buffer.get("2", id -> new TestObject(2));
+        buffer.put(new TestObject(3));
+        buffer.get("3", id -> null);
+        buffer.get("4", id -> null);
+
+        CacheStats stats = buffer.stats();
+        assertEquals(2, stats.hitCount());
+        assertEquals(3, stats.missCount());
+        assertEquals(1, stats.loadSuccessCount());
+        assertEquals(1, stats.loadFailureCount());
+        assertEquals(1, stats.evictionCount());
+        assertEquals(0, stats.expiredCount());
+
+        ticker.advance(10, TimeUnit.SECONDS);
+        buffer.cleanUp();
+        CacheStats interval = buffer.stats().minus(stats);
+        assertEquals(2, interval.expiredCount());
+        assertEquals(0, interval.requestCount());
+    }
+
+    @Test
+    public void bulkPutAndGet() {
+        FSFTBuffer<TestObject> buffer = new FSFTBuffer<>(8, 100, 4);
+        List<TestObject> objects = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            objects.add(new TestObject(i));
+        }
+        assertTrue(buffer.putAll(objects));
+
+        Map<String, TestObject> found = buffer.getAll(List.of("0", "3", "7", "8", "3"));
+        assertEquals(Set.of("0", "3", "7"), found.keySet());
+        assertEquals("7", found.get("7").id());
+        assertEquals(4, buffer.stats().requestCount());
+        assertEquals(1, buffer.stats().missCount());
+        assertTrue(buffer.getAll(List.of()).isEmpty());
+    }
 }
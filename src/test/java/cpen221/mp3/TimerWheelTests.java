@@ -0,0 +1,114 @@
+package cpen221.mp3;
+
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.fsftbuffer.FakeTicker;
+import cpen221.mp3.fsftbuffer.RemovalCause;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that cleanUp() removes objects when, and only when, they go stale, however far
+ * ahead their timeouts are and however far the clock jumps between cleanups.
+ */
+public class TimerWheelTests {
+
+    private static final int SECOND = 1000;
+
+    private final FakeTicker ticker = new FakeTicker(1_000_000);
+    private final Map<String, Integer> timeouts = new HashMap<>();
+    private final List<String> expired = Collections.synchronizedList(new ArrayList<>());
+    private final FSFTBuffer<TestObject> buffer = new FSFTBuffer.Builder<TestObject>()
+        .withCapacity(1000)
+        .withTicker(ticker)
+        .withExpiry(t -> timeouts.get(t.id()))
+        .withRemovalListener((id, t, cause) -> {
+            if (cause == RemovalCause.EXPIRED) {
+                expired.add(id);
+            }
+        }, Runnable::run)
+        .build();
+
+    private void put(int id, int timeout) {
+        timeouts.put(String.valueOf(id), timeout);
+        assertTrue(buffer.put(new TestObject(id)));
+    }
+
+    /**
+     * Moves the clock to {@code millis} after the buffer was created and cleans up.
+     */
+    private void cleanUpAt(long millis) {
+        long now = ticker.currentTimeMillis() - 1_000_000;
+        ticker.advance(millis - now, TimeUnit.MILLISECONDS);
+        buffer.cleanUp();
+    }
+
+    @Test
+    public void timeoutsOnEveryLevelCascadeDown() {
+        // 20 s is past the first level's 2^14 ms, 30 min past the second's 2^20 ms,
+        // 2 days past the third's and 20 days past the fourth's.
+        int[] seconds = {1, 20, 30 * 60, 2 * 24 * 3600, 20 * 24 * 3600};
+        for (int id = 0; id < seconds.length; id++) {
+            put(id, seconds[id]);
+        }
+        for (int id = 0; id < seconds.length; id++) {
+            cleanUpAt(seconds[id] * (long) SECOND - 1);
+            assertEquals(id, expired.size());
+            // Objects are removed within one 256 ms bucket of going stale.
+            cleanUpAt(seconds[id] * (long) SECOND + 300);
+            assertEquals(String.valueOf(id), expired.get(id));
+            assertEquals(id + 1, expired.size());
+        }
+    }
+
+    @Test
+    public void oneAdvanceSkipsManyTicks() {
+        for (int id = 1; id <= 100; id++) {
+            put(id, id);
+        }
+        put(0, 3 * 24 * 3600);
+
+        cleanUpAt(50 * SECOND + 500);
+        assertEquals(50, expired.size());
+        for (int id = 1; id <= 50; id++) {
+            assertTrue(expired.contains(String.valueOf(id)));
+        }
+
+        cleanUpAt(3600 * SECOND);
+        assertEquals(100, expired.size());
+
+        cleanUpAt(3 * 24 * 3600 * (long) SECOND + 300);
+        assertEquals(101, expired.size());
+        assertEquals("0", expired.get(100));
+    }
+
+    @Test
+    public void touchedAndRemovedObjectsLeaveTheirBuckets() {
+        put(1, 20);
+        put(2, 20);
+        put(3, 20);
+
+        cleanUpAt(15 * SECOND);
+        assertTrue(buffer.touch("1"));
+        assertTrue(buffer.invalidate("2"));
+        timeouts.put("3", 40);
+        assertTrue(buffer.update(new TestObject(3)));
+
+        cleanUpAt(21 * SECOND);
+        assertEquals(List.of(), expired);
+
+        cleanUpAt(35 * SECOND + 300);
+        assertEquals(List.of("1"), expired);
+
+        cleanUpAt(55 * SECOND + 300);
+        assertEquals(List.of("1", "3"), expired);
+    }
+}